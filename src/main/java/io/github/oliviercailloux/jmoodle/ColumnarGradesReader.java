@@ -0,0 +1,144 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.github.oliviercailloux.jmoodle.raw.Feedback;
+import io.github.oliviercailloux.jmoodle.raw.Format;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.DoubleSummaryStatistics;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads a file written by {@link GradesWriter#columnar(Path)}, mapping it in memory. The aggregate
+ * queries only read the columns they need.
+ */
+public class ColumnarGradesReader implements AutoCloseable {
+  public static ColumnarGradesReader open(Path path) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      checkArgument(size <= Integer.MAX_VALUE, "File too large to be mapped at once.");
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      return new ColumnarGradesReader(mapped);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private final MappedByteBuffer mapped;
+  private final ImmutableList<Integer> blockOffsets;
+  private final ImmutableList<String> dictionary;
+
+  private ColumnarGradesReader(MappedByteBuffer mapped) {
+    this.mapped = mapped;
+    int size = mapped.capacity();
+    checkArgument(size >= 20 && mapped.getInt(0) == ColumnarGradesWriter.MAGIC,
+        "Not a columnar grades file.");
+    checkArgument(mapped.getInt(4) == ColumnarGradesWriter.VERSION, "Unsupported version.");
+    checkArgument(mapped.getInt(size - 4) == ColumnarGradesWriter.MAGIC, "Truncated file.");
+    int position = Math.toIntExact(mapped.getLong(size - 12));
+
+    int blockCount = mapped.getInt(position);
+    position += 4;
+    ImmutableList.Builder<Integer> offsetsBuilder = ImmutableList.builder();
+    for (int i = 0; i < blockCount; ++i) {
+      offsetsBuilder.add(Math.toIntExact(mapped.getLong(position)));
+      position += 8;
+    }
+    this.blockOffsets = offsetsBuilder.build();
+
+    int dictionarySize = mapped.getInt(position);
+    position += 4;
+    ImmutableList.Builder<String> dictionaryBuilder = ImmutableList.builder();
+    for (int i = 0; i < dictionarySize; ++i) {
+      int length = mapped.getInt(position);
+      position += 4;
+      dictionaryBuilder.add(string(position, length));
+      position += length;
+    }
+    this.dictionary = dictionaryBuilder.build();
+    checkState(position == size - 12);
+  }
+
+  private String string(int position, int length) {
+    byte[] bytes = new byte[length];
+    mapped.get(position, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public int rowCount() {
+    return blockOffsets.stream().mapToInt(mapped::getInt).sum();
+  }
+
+  public ImmutableList<UserGradeFeedback> rows() {
+    ImmutableList.Builder<UserGradeFeedback> rows = ImmutableList.builder();
+    for (int offset : blockOffsets) {
+      int n = mapped.getInt(offset);
+      int userIds = offset + 4;
+      int userNames = userIds + 4 * n;
+      int assignmentIds = userNames + 4 * n;
+      int assignmentNames = assignmentIds + 4 * n;
+      int grades = assignmentNames + 4 * n;
+      int formats = grades + 8 * n;
+      int feedbackLengths = formats + n;
+      int feedback = feedbackLengths + 4 * n;
+      for (int i = 0; i < n; ++i) {
+        int feedbackLength = mapped.getInt(feedbackLengths + 4 * i);
+        Feedback fb = new Feedback(string(feedback, feedbackLength),
+            Format.fromValue(mapped.get(formats + i)));
+        feedback += feedbackLength;
+        rows.add(new UserGradeFeedback(new UserId(mapped.getInt(userIds + 4 * i)),
+            dictionary.get(mapped.getInt(userNames + 4 * i)),
+            mapped.getInt(assignmentIds + 4 * i),
+            dictionary.get(mapped.getInt(assignmentNames + 4 * i)),
+            mapped.getDouble(grades + 8 * i), fb));
+      }
+    }
+    return rows.build();
+  }
+
+  /** Reads only the assignment id and grade columns. */
+  public ImmutableMap<Integer, DoubleSummaryStatistics> gradeStatisticsByAssignment() {
+    Map<Integer, DoubleSummaryStatistics> statistics = new LinkedHashMap<>();
+    for (int offset : blockOffsets) {
+      int n = mapped.getInt(offset);
+      int assignmentIds = offset + 4 + 8 * n;
+      int grades = assignmentIds + 8 * n;
+      for (int i = 0; i < n; ++i) {
+        statistics.computeIfAbsent(mapped.getInt(assignmentIds + 4 * i),
+            a -> new DoubleSummaryStatistics()).accept(mapped.getDouble(grades + 8 * i));
+      }
+    }
+    return ImmutableMap.copyOf(statistics);
+  }
+
+  /** Reads only the grade column. */
+  public DoubleSummaryStatistics gradeStatistics() {
+    DoubleSummaryStatistics statistics = new DoubleSummaryStatistics();
+    for (int offset : blockOffsets) {
+      int n = mapped.getInt(offset);
+      int grades = offset + 4 + 16 * n;
+      for (int i = 0; i < n; ++i) {
+        statistics.accept(mapped.getDouble(grades + 8 * i));
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * The mapping is released when this object is garbage collected; this only prevents further use.
+   */
+  @Override
+  public void close() {
+    mapped.limit(0);
+  }
+}
@@ -0,0 +1,190 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the file format read by {@link ColumnarGradesReader}. Rows are buffered up to
+ * {@link #BLOCK_ROWS} then written as one block, column after column, so that the memory used does
+ * not depend on the number of rows. All numbers are big-endian.
+ *
+ * <pre>
+ * file   := MAGIC:int VERSION:int block* footer trailer
+ * block  := n:int userid:int[n] username:int[n] assignmentid:int[n] assignmentname:int[n]
+ *           grade:double[n] feedbackformat:byte[n] feedbacklength:int[n] feedback:utf8*
+ * footer := blockcount:int blockoffset:long[blockcount] dictsize:int (length:int utf8)[dictsize]
+ * trailer:= footeroffset:long MAGIC:int
+ * </pre>
+ *
+ * The user and assignment names are indices in the dictionary, which is shared by both columns.
+ */
+class ColumnarGradesWriter implements GradesWriter {
+  static final int MAGIC = 0x4A4D4752;
+  static final int VERSION = 1;
+  static final int BLOCK_ROWS = 4096;
+
+  public static ColumnarGradesWriter create(Path path) {
+    try {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      try {
+        ColumnarGradesWriter writer = new ColumnarGradesWriter(channel);
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).flip();
+        writer.writeFully(header);
+        return writer;
+      } catch (IOException | RuntimeException e) {
+        closeAfterFailure(channel, e);
+        throw e;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Closes the channel of a writer whose creation failed, without masking the failure. */
+  static void closeAfterFailure(FileChannel channel, Exception failure) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      failure.addSuppressed(e);
+    }
+  }
+
+  private final FileChannel channel;
+  private final Map<String, Integer> dictionary;
+  private final List<byte[]> dictionaryEntries;
+  private final List<Long> blockOffsets;
+  private final List<UserGradeFeedback> pending;
+  private ByteBuffer buffer;
+  private boolean closed;
+
+  private ColumnarGradesWriter(FileChannel channel) {
+    this.channel = channel;
+    this.dictionary = new HashMap<>();
+    this.dictionaryEntries = new ArrayList<>();
+    this.blockOffsets = new ArrayList<>();
+    this.pending = new ArrayList<>(BLOCK_ROWS);
+    this.buffer = ByteBuffer.allocateDirect(BLOCK_ROWS * 32);
+    this.closed = false;
+  }
+
+  private int code(String name) {
+    return dictionary.computeIfAbsent(name, n -> {
+      dictionaryEntries.add(n.getBytes(StandardCharsets.UTF_8));
+      return dictionaryEntries.size() - 1;
+    });
+  }
+
+  private void writeFully(ByteBuffer source) throws IOException {
+    while (source.hasRemaining()) {
+      channel.write(source);
+    }
+  }
+
+  private ByteBuffer buffer(int capacity) {
+    if (buffer.capacity() < capacity) {
+      buffer = ByteBuffer.allocateDirect(Math.max(capacity, buffer.capacity() * 2));
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  @Override
+  public void write(UserGradeFeedback grade) {
+    checkState(!closed);
+    pending.add(grade);
+    if (pending.size() == BLOCK_ROWS) {
+      flushBlock();
+    }
+  }
+
+  private void flushBlock() {
+    int n = pending.size();
+    byte[][] feedbacks = new byte[n][];
+    int feedbacksLength = 0;
+    for (int i = 0; i < n; ++i) {
+      feedbacks[i] = pending.get(i).feedback().text().getBytes(StandardCharsets.UTF_8);
+      feedbacksLength += feedbacks[i].length;
+    }
+    ByteBuffer block = buffer(4 + n * 29 + feedbacksLength);
+    block.putInt(n);
+    for (UserGradeFeedback grade : pending) {
+      block.putInt(grade.userId().id());
+    }
+    for (UserGradeFeedback grade : pending) {
+      block.putInt(code(grade.username()));
+    }
+    for (UserGradeFeedback grade : pending) {
+      block.putInt(grade.assignmentId());
+    }
+    for (UserGradeFeedback grade : pending) {
+      block.putInt(code(grade.assignmentName()));
+    }
+    for (UserGradeFeedback grade : pending) {
+      block.putDouble(grade.grade());
+    }
+    for (UserGradeFeedback grade : pending) {
+      block.put((byte) grade.feedback().format().value());
+    }
+    for (byte[] feedback : feedbacks) {
+      block.putInt(feedback.length);
+    }
+    for (byte[] feedback : feedbacks) {
+      block.put(feedback);
+    }
+    block.flip();
+    try {
+      blockOffsets.add(channel.position());
+      writeFully(block);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    pending.clear();
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      try {
+        if (!pending.isEmpty()) {
+          flushBlock();
+        }
+        long footerOffset = channel.position();
+        int dictionaryLength = dictionaryEntries.stream().mapToInt(e -> 4 + e.length).sum();
+        ByteBuffer footer = buffer(4 + 8 * blockOffsets.size() + 4 + dictionaryLength + 12);
+        footer.putInt(blockOffsets.size());
+        for (long offset : blockOffsets) {
+          footer.putLong(offset);
+        }
+        footer.putInt(dictionaryEntries.size());
+        for (byte[] entry : dictionaryEntries) {
+          footer.putInt(entry.length);
+          footer.put(entry);
+        }
+        footer.putLong(footerOffset);
+        footer.putInt(MAGIC);
+        footer.flip();
+        writeFully(footer);
+      } finally {
+        channel.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class CsvGradesWriter implements GradesWriter {
+  public static CsvGradesWriter create(Path path) {
+    try {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      try {
+        Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+        writer.write(
+            "userid,username,assignmentid,assignmentname,grade,feedbackformat,feedback\r\n");
+        return new CsvGradesWriter(writer);
+      } catch (IOException | RuntimeException e) {
+        ColumnarGradesWriter.closeAfterFailure(channel, e);
+        throw e;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String quoted(String field) {
+    if (field.chars().noneMatch(c -> c == ',' || c == '"' || c == '\r' || c == '\n')) {
+      return field;
+    }
+    return "\"" + field.replace("\"", "\"\"") + "\"";
+  }
+
+  private final Writer writer;
+  private boolean closed;
+
+  private CsvGradesWriter(Writer writer) {
+    this.writer = writer;
+    this.closed = false;
+  }
+
+  @Override
+  public void write(UserGradeFeedback grade) {
+    checkState(!closed);
+    try {
+      writer.write(Integer.toString(grade.userId().id()));
+      writer.write(',');
+      writer.write(quoted(grade.username()));
+      writer.write(',');
+      writer.write(Integer.toString(grade.assignmentId()));
+      writer.write(',');
+      writer.write(quoted(grade.assignmentName()));
+      writer.write(',');
+      writer.write(Double.toString(grade.grade()));
+      writer.write(',');
+      writer.write(Integer.toString(grade.feedback().format().value()));
+      writer.write(',');
+      writer.write(quoted(grade.feedback().text()));
+      writer.write("\r\n");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      writer.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
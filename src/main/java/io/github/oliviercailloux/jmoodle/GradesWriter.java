@@ -0,0 +1,32 @@
+package io.github.oliviercailloux.jmoodle;
+
+import java.nio.file.Path;
+
+/**
+ * Writes grades to a file as they arrive, typically from
+ * {@link Mood#exportGradesByAssignment(int, GradesWriter)}. Failures to write are reported as
+ * {@link java.io.UncheckedIOException}.
+ */
+public interface GradesWriter extends AutoCloseable {
+  /**
+   * Returns a writer to a compact binary file, organized in blocks of columns, with the user and
+   * assignment names dictionary-encoded and the grades stored as doubles; to be read with
+   * {@link ColumnarGradesReader}.
+   */
+  public static GradesWriter columnar(Path path) {
+    return ColumnarGradesWriter.create(path);
+  }
+
+  /**
+   * Returns a writer to a UTF-8 CSV file with a header line, one line per grade, quoting fields as
+   * per RFC 4180.
+   */
+  public static GradesWriter csv(Path path) {
+    return CsvGradesWriter.create(path);
+  }
+
+  void write(UserGradeFeedback grade);
+
+  @Override
+  void close();
+}
@@ -15,25 +15,41 @@ import com.google.common.collect.Table;
 import io.github.oliviercailloux.jmoodle.raw.Feedback;
 import io.github.oliviercailloux.jmoodle.raw.Format;
 import io.github.oliviercailloux.jmoodle.raw.Moodle;
+import io.github.oliviercailloux.jmoodle.raw.RequestScheduler;
+import io.github.oliviercailloux.jmoodle.raw.RequestScheduler.RequestContext;
 import io.github.oliviercailloux.jmoodle.raw.SaveGrade;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonNumber;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonString;
 import jakarta.json.JsonValue;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.RecordComponent;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
-public class Mood {
-
+public class Mood implements AutoCloseable {
   static <T extends Record> T asRecord(JsonObject json, Class<T> recordClass) {
     final ImmutableList.Builder<Object> canonicalParamsBuilder = new ImmutableList.Builder<>();
 
@@ -88,22 +104,66 @@ public class Mood {
     }
   }
 
+  /**
+   * Runs the given tasks on the executor and waits for all of them; the results are in the order of
+   * the tasks. If some task fails, its exception is rethrown (after all tasks completed). The tasks
+   * send their requests with the {@link RequestContext} of the calling thread.
+   */
+  private static <T> ImmutableList<T> inParallel(Collection<Supplier<T>> tasks,
+      Executor executor) {
+    ImmutableList<CompletableFuture<T>> futures =
+        tasks.stream().map(t -> CompletableFuture
+            .supplyAsync(RequestScheduler.propagatingContext(t), executor))
+            .collect(ImmutableList.toImmutableList());
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException r) {
+        throw r;
+      }
+      if (cause instanceof Error err) {
+        throw err;
+      }
+      throw e;
+    }
+    return futures.stream().map(CompletableFuture::join).collect(ImmutableList.toImmutableList());
+  }
+
   public static Mood using(Moodle moodle) {
     return new Mood(moodle);
   }
 
   private Moodle moodle;
   private boolean ignoreWarnings;
+  private ParallelDecoder decoder;
 
   private Mood(Moodle moodle) {
     this.moodle = moodle;
     this.ignoreWarnings = false;
+    this.decoder =
+        ParallelDecoder.using(ForkJoinPool.commonPool(), ParallelDecoder.DEFAULT_THRESHOLD);
+  }
+
+  /** Closes the underlying {@link Moodle} instance. */
+  @Override
+  public void close() {
+    moodle.close();
   }
 
   public void ignoreWarnings(@SuppressWarnings("hiding") boolean ignoreWarnings) {
     this.ignoreWarnings = ignoreWarnings;
   }
 
+  /**
+   * Sets the pool used to decode large answers (the users of {@link #gradesByAssignment(int)}, the
+   * grades of {@link #gradesByAttempt(int)}), and the number of elements up to which decoding
+   * stays sequential. By default, the common pool and a threshold of 256.
+   */
+  public void decodeUsing(ForkJoinPool pool, int threshold) {
+    this.decoder = ParallelDecoder.using(pool, threshold);
+  }
+
   private ImmutableSet<JsonObject> main(JsonObject full) {
     checkState(full.containsKey("warnings"), full);
     Set<String> keys = new LinkedHashSet<>(full.keySet());
@@ -143,6 +203,30 @@ public class Mood {
     return courseId;
   }
 
+  private static ImmutableSet<Integer> ids(ImmutableSet<JsonObject> courses) {
+    final ImmutableSet.Builder<Integer> idsBuilder = new ImmutableSet.Builder<>();
+    for (JsonObject course : courses) {
+      checkState(course.containsKey("id"), course);
+      idsBuilder.add(course.getInt("id"));
+    }
+    ImmutableSet<Integer> ids = idsBuilder.build();
+    checkState(ids.size() == courses.size());
+    return ids;
+  }
+
+  public ImmutableSet<Integer> courseIdsInCategory(int categoryId) {
+    return ids(coursesByField("category", Integer.toString(categoryId)));
+  }
+
+  /** Returns those of the given ids that correspond to an existing course. */
+  public ImmutableSet<Integer> existingCourseIds(Set<Integer> courseIds) {
+    if (courseIds.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    String joined = courseIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+    return ids(coursesByField("ids", joined));
+  }
+
   public ImmutableSet<JsonObject> gradableUsers(int courseId) {
     JsonObject full =
         moodle.core_grades_get_gradable_users(courseId, Optional.empty(), Optional.empty());
@@ -198,40 +282,164 @@ public class Mood {
     return latestAttempts.build();
   }
 
+  /**
+   * Returns one object per assignment that has submissions modified since the given time (or any
+   * submission, if empty), each with its {@code assignmentid} and {@code submissions} array.
+   */
+  ImmutableSet<JsonObject> submissions(Set<Integer> assignmentIds, Optional<Instant> since) {
+    JsonObject full =
+        moodle.mod_assign_get_submissions(assignmentIds, "", since, Optional.empty());
+    return main(full);
+  }
+
+  public ImmutableSet<Integer> groupIds(int courseId) {
+    JsonArray groups = moodle.core_group_get_course_groups(courseId);
+    final ImmutableSet.Builder<Integer> idsBuilder = new ImmutableSet.Builder<>();
+    for (JsonValue jsonValue : groups) {
+      JsonObject group = (JsonObject) jsonValue;
+      checkState(group.containsKey("id"), group);
+      checkState(group.getInt("courseid") == courseId, group);
+      idsBuilder.add(group.getInt("id"));
+    }
+    ImmutableSet<Integer> ids = idsBuilder.build();
+    checkState(ids.size() == groups.size());
+    return ids;
+  }
+
+  /**
+   * Fetches a list of elements with one request per given group, run in parallel on the given
+   * executor, and merges the answers, keeping one element per value of the given key (a user id).
+   */
+  private ImmutableMap<Integer, JsonObject> byGroups(Set<Integer> groupIds, Executor executor,
+      String userIdKey, Function<Integer, ImmutableSet<JsonObject>> fetch) {
+    ImmutableList<Supplier<ImmutableSet<JsonObject>>> tasks = groupIds.stream()
+        .map(g -> (Supplier<ImmutableSet<JsonObject>>) () -> fetch.apply(g))
+        .collect(ImmutableList.toImmutableList());
+    Map<Integer, JsonObject> byUserId = new LinkedHashMap<>();
+    for (ImmutableSet<JsonObject> elements : inParallel(tasks, executor)) {
+      for (JsonObject element : elements) {
+        checkState(element.containsKey(userIdKey), element);
+        byUserId.putIfAbsent(element.getJsonNumber(userIdKey).intValueExact(), element);
+      }
+    }
+    return ImmutableMap.copyOf(byUserId);
+  }
+
+  /**
+   * Returns the gradable users who belong to at least one group of the course, fetched group by
+   * group, with one request per group run in parallel on the given executor, so as to avoid a
+   * single huge answer in very large courses. Users who belong to several groups are returned once.
+   * Users who belong to no group are <em>not</em> returned (thus, none is if the course has no
+   * groups): Moodle offers no request for them other than the one of {@link #gradableUsers(int)}.
+   */
+  public ImmutableSet<JsonObject> gradableUsersByGroups(int courseId, Executor executor) {
+    return ImmutableSet.copyOf(byGroups(groupIds(courseId), executor, "id",
+        g -> main(moodle.core_grades_get_gradable_users(courseId, Optional.of(g),
+            Optional.empty()))).values());
+  }
+
   public Table<UserId, Integer, UserGradeFeedback> gradesByAssignment(int courseId) {
     JsonObject full =
         moodle.gradereport_user_get_grade_items(courseId, Optional.empty(), Optional.empty());
     ImmutableSet<JsonObject> userGrades = main(full);
+    return decodeGradesByAssignment(userGrades);
+  }
+
+  /**
+   * Equivalent to {@link #gradesByAssignment(int)} but fetches the grade items group by group, so
+   * as to avoid a single huge answer in very large courses. This costs one request per group of
+   * the course, run in parallel on the given executor; then the {@link #gradableUsers(int)}
+   * request, to find the users who belong to no group; then one request per such user, also in
+   * parallel. This thus suits courses where most users belong to some group. If the course has no
+   * groups, sends instead the single request of {@link #gradesByAssignment(int)}. Users who belong
+   * to several groups are counted once.
+   */
+  public Table<UserId, Integer, UserGradeFeedback> gradesByAssignmentByGroups(int courseId,
+      Executor executor) {
+    ImmutableSet<Integer> groupIds = groupIds(courseId);
+    if (groupIds.isEmpty()) {
+      return gradesByAssignment(courseId);
+    }
+    Map<Integer, JsonObject> byUserId = new LinkedHashMap<>(byGroups(groupIds, executor, "userid",
+        g -> main(moodle.gradereport_user_get_grade_items(courseId, Optional.empty(),
+            Optional.of(g)))));
+    ImmutableSet<Integer> ungrouped = gradableUsers(courseId).stream().map(u -> u.getInt("id"))
+        .filter(u -> !byUserId.containsKey(u)).collect(ImmutableSet.toImmutableSet());
+    byUserId.putAll(byGroups(ungrouped, executor, "userid",
+        u -> main(moodle.gradereport_user_get_grade_items(courseId, Optional.of(u),
+            Optional.empty()))));
+    return decodeGradesByAssignment(byUserId.values());
+  }
+
+  /**
+   * Writes the grades that {@link #gradesByAssignment(int)} would return, user by user as they are
+   * decoded, without building the table. Does not close the writer.
+   */
+  public void exportGradesByAssignment(int courseId, GradesWriter writer) {
+    JsonObject full =
+        moodle.gradereport_user_get_grade_items(courseId, Optional.empty(), Optional.empty());
+    for (JsonObject userGrade : main(full)) {
+      for (UserGradeFeedback userGradeFeedback : decodeUserGrades(userGrade)) {
+        writer.write(userGradeFeedback);
+      }
+    }
+  }
+
+  private ImmutableTable<UserId, Integer, UserGradeFeedback>
+      decodeGradesByAssignment(Collection<JsonObject> userGrades) {
+    ImmutableList<UserGradeFeedback> decoded =
+        decoder.decode(ImmutableList.copyOf(userGrades), Mood::decodeUserGrades);
     ImmutableTable.Builder<UserId, Integer, UserGradeFeedback> gradesBuilder =
         ImmutableTable.builder();
-    for (JsonObject userGrade : userGrades) {
-      int userId = userGrade.getJsonNumber("userid").intValueExact();
-      String userFullName = userGrade.getString("userfullname");
-      JsonArray gradeItems = userGrade.getJsonArray("gradeitems");
-      for (JsonValue gradeItemValue : gradeItems) {
-        JsonObject gradeItem = (JsonObject) gradeItemValue;
-        String itemType = gradeItem.getString("itemtype");
-        JsonValue itemModule = gradeItem.get("itemmodule");
-        JsonValue gradeRaw = gradeItem.get("graderaw");
-        if (!itemType.equals("mod") || itemModule.equals(JsonValue.NULL)
-            || !((JsonString) itemModule).getString().equals("assign")
-            || gradeRaw.equals(JsonValue.NULL)) {
-          continue;
-        }
-        int assignmentId = gradeItem.getInt("iteminstance");
-        String assignmentName = gradeItem.getString("itemname");
-        double grade = ((JsonNumber) gradeRaw).doubleValue();
-        String feedbackStr = gradeItem.getString("feedback");
-        int feedbackformat = gradeItem.getJsonNumber("feedbackformat").intValueExact();
-        Feedback feedback = new Feedback(feedbackStr, Format.fromValue(feedbackformat));
-        UserGradeFeedback userGradeFeedback = new UserGradeFeedback(new UserId(userId),
-            userFullName, assignmentId, assignmentName, grade, feedback);
-        gradesBuilder.put(new UserId(userId), assignmentId, userGradeFeedback);
-      }
+    for (UserGradeFeedback userGradeFeedback : decoded) {
+      gradesBuilder.put(userGradeFeedback.userId(), userGradeFeedback.assignmentId(),
+          userGradeFeedback);
     }
     return gradesBuilder.build();
   }
 
+  private static ImmutableList<UserGradeFeedback> decodeUserGrades(JsonObject userGrade) {
+    ImmutableList.Builder<UserGradeFeedback> decoded = ImmutableList.builder();
+    int userId = userGrade.getJsonNumber("userid").intValueExact();
+    String userFullName = userGrade.getString("userfullname");
+    JsonArray gradeItems = userGrade.getJsonArray("gradeitems");
+    for (JsonValue gradeItemValue : gradeItems) {
+      JsonObject gradeItem = (JsonObject) gradeItemValue;
+      String itemType = gradeItem.getString("itemtype");
+      JsonValue itemModule = gradeItem.get("itemmodule");
+      JsonValue gradeRaw = gradeItem.get("graderaw");
+      if (!itemType.equals("mod") || itemModule.equals(JsonValue.NULL)
+          || !((JsonString) itemModule).getString().equals("assign")
+          || gradeRaw.equals(JsonValue.NULL)) {
+        continue;
+      }
+      int assignmentId = gradeItem.getInt("iteminstance");
+      String assignmentName = gradeItem.getString("itemname");
+      double grade = ((JsonNumber) gradeRaw).doubleValue();
+      String feedbackStr = gradeItem.getString("feedback");
+      int feedbackformat = gradeItem.getJsonNumber("feedbackformat").intValueExact();
+      Feedback feedback = new Feedback(feedbackStr, Format.fromValue(feedbackformat));
+      decoded.add(new UserGradeFeedback(new UserId(userId), userFullName, assignmentId,
+          assignmentName, grade, feedback));
+    }
+    return decoded.build();
+  }
+
+  private static record AttemptGrade (UserId userId, int attemptNumber, double grade) {
+  }
+
+  private static ImmutableList<AttemptGrade> decodeAttemptGrade(JsonValue gradeValue) {
+    JsonObject gradeObject = (JsonObject) gradeValue;
+    checkState(gradeObject.containsKey("userid"), gradeObject);
+    checkState(gradeObject.containsKey("attemptnumber"), gradeObject);
+    checkState(gradeObject.containsKey("grade"), gradeObject);
+    UserId userId = new UserId(gradeObject.getInt("userid"));
+    int attemptNumber = gradeObject.getInt("attemptnumber");
+    String gradeStr = gradeObject.getString("grade");
+    double grade = Double.parseDouble(gradeStr);
+    return ImmutableList.of(new AttemptGrade(userId, attemptNumber, grade));
+  }
+
   public ImmutableTable<UserId, Integer, Double> gradesByAttempt(int assignmentId) {
     JsonObject full = moodle.mod_assign_get_grades(ImmutableSet.of(assignmentId), Optional.empty());
     ImmutableSet<JsonObject> jsons = main(full);
@@ -240,21 +448,43 @@ public class Mood {
     checkState(assignment.containsKey("assignmentid"), assignment);
     checkState(assignment.getInt("assignmentid") == assignmentId);
     JsonArray gradesArray = assignment.getJsonArray("grades");
+    ImmutableList<AttemptGrade> decoded = decoder.decode(gradesArray, Mood::decodeAttemptGrade);
     ImmutableTable.Builder<UserId, Integer, Double> gradesBuilder = ImmutableTable.builder();
-    for (JsonValue gradeValue : gradesArray) {
-      JsonObject gradeObject = (JsonObject) gradeValue;
-      checkState(gradeObject.containsKey("userid"), gradeObject);
-      checkState(gradeObject.containsKey("attemptnumber"), gradeObject);
-      checkState(gradeObject.containsKey("grade"), gradeObject);
-      UserId userId = new UserId(gradeObject.getInt("userid"));
-      int attemptNumber = gradeObject.getInt("attemptnumber");
-      String gradeStr = gradeObject.getString("grade");
-      double grade = Double.parseDouble(gradeStr);
-      gradesBuilder.put(userId, attemptNumber, grade);
+    for (AttemptGrade attemptGrade : decoded) {
+      gradesBuilder.put(attemptGrade.userId(), attemptGrade.attemptNumber(), attemptGrade.grade());
     }
     return gradesBuilder.build();
   }
 
+  private int upload(int itemId, Path file) {
+    try (FileChannel content = FileChannel.open(file, StandardOpenOption.READ)) {
+      JsonObject uploaded = moodle.upload(itemId, file.getFileName().toString(), content);
+      checkState(uploaded.containsKey("itemid"), uploaded);
+      return uploaded.getInt("itemid");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Uploads the given files into a new draft area: the first one alone, which creates the area,
+   * then the others in parallel on the given executor. The files are streamed, not loaded in
+   * memory.
+   *
+   * @return the item id of the draft area, to be given to
+   *         {@link SaveGrade#withFeedback(Feedback, int)}
+   */
+  public int uploadToNewDraftArea(List<Path> files, Executor executor) {
+    checkArgument(!files.isEmpty());
+    int itemId = upload(0, files.get(0));
+    ImmutableList<Supplier<Integer>> tasks = files.subList(1, files.size()).stream()
+        .map(f -> (Supplier<Integer>) () -> upload(itemId, f))
+        .collect(ImmutableList.toImmutableList());
+    ImmutableList<Integer> itemIds = inParallel(tasks, executor);
+    checkState(itemIds.stream().allMatch(i -> i == itemId), itemIds);
+    return itemId;
+  }
+
   public void setGrades(int assignmentId, Set<SaveGrade> grades) {
     moodle.mod_assign_save_grades(assignmentId, false, grades);
   }
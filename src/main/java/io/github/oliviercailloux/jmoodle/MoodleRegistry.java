@@ -0,0 +1,240 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.github.oliviercailloux.jmoodle.raw.Moodle;
+import io.github.oliviercailloux.jmoodle.raw.RequestScheduler;
+import io.github.oliviercailloux.jmoodle.raw.RequestScheduler.Priority;
+import jakarta.json.JsonReaderFactory;
+import jakarta.ws.rs.client.Client;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out {@link Moodle} and {@link Mood} instances per tenant (a Moodle server and a token), all
+ * sharing one transport ({@link Client}) and one thread pool.
+ * <p>
+ * Each tenant gets its own {@link RequestScheduler}, which bounds the number of connections it
+ * uses, and its own {@link #executor(Tenant) view} of the shared pool, which bounds the number of
+ * threads it occupies, so that one slow server cannot starve the others. The instances of a tenant
+ * are created on first use, and closed and dropped by {@link #evictIdle(Duration)} when no request
+ * has been sent for a while (they are created again if asked for later). Callers should thus ask the
+ * registry for an instance at each unit of work rather than keep it.
+ * <p>
+ * The instances handed out are shared by all callers of the tenant, thus must not be closed by the
+ * callers (in particular, must not be used in try-with-resources blocks): closing one makes the
+ * requests of the other callers currently using it fail. The registry replaces an instance closed
+ * anyway at the next hand out.
+ */
+public class MoodleRegistry implements AutoCloseable {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(MoodleRegistry.class);
+
+  public static record Tenant (URI moodleServer, String apiKey) {
+    public Tenant {
+      checkNotNull(moodleServer);
+      checkNotNull(apiKey);
+    }
+
+    /** Does not show the token. */
+    @Override
+    public String toString() {
+      return "Tenant[" + moodleServer + "]";
+    }
+  }
+
+  /**
+   * @param connections the maximal number of requests in flight to the server
+   * @param reservedForInteractive among the connections, those that only interactive requests may
+   *        use
+   * @param threads the maximal number of threads of the shared pool occupied at the same time
+   */
+  public static record TenantLimits (int connections, int reservedForInteractive, int threads) {
+    public TenantLimits {
+      checkArgument(connections >= 1);
+      checkArgument(0 <= reservedForInteractive && reservedForInteractive < connections);
+      checkArgument(threads >= 1);
+    }
+  }
+
+  public static record TenantMetrics (long completed, long failed, Duration totalTime,
+      int inFlight, int waiting, int runningTasks, int queuedTasks) {
+  }
+
+  /** The last hand out time is updated by the callers, in the map, atomically with eviction. */
+  private static record Entry (Moodle moodle, Mood mood, RequestScheduler scheduler,
+      QuotaExecutor executor, AtomicLong lastHandedOutNanos) {
+  }
+
+  /** The registry does not close the given client. */
+  public static MoodleRegistry using(Client client, JsonReaderFactory jsonReaderFactory,
+      Executor sharedPool, Function<Tenant, TenantLimits> limits) {
+    checkNotNull(client);
+    checkNotNull(jsonReaderFactory);
+    return new MoodleRegistry((t, s) -> Moodle.instance(t.moodleServer(), t.apiKey(), client,
+        jsonReaderFactory, s), sharedPool, limits);
+  }
+
+  /** Uses the process-wide transport shared by default by {@link Moodle} instances. */
+  public static MoodleRegistry usingSharedTransport(Executor sharedPool,
+      Function<Tenant, TenantLimits> limits) {
+    return new MoodleRegistry((t, s) -> Moodle.instance(t.moodleServer(), t.apiKey(), s),
+        sharedPool, limits);
+  }
+
+  private final BiFunction<Tenant, RequestScheduler, Moodle> moodleFactory;
+  private final Executor sharedPool;
+  private final Function<Tenant, TenantLimits> limits;
+  private final Map<Tenant, Entry> entries;
+  private ScheduledFuture<?> evicting;
+
+  private MoodleRegistry(BiFunction<Tenant, RequestScheduler, Moodle> moodleFactory,
+      Executor sharedPool, Function<Tenant, TenantLimits> limits) {
+    this.moodleFactory = moodleFactory;
+    this.sharedPool = checkNotNull(sharedPool);
+    this.limits = checkNotNull(limits);
+    this.entries = new ConcurrentHashMap<>();
+    this.evicting = null;
+  }
+
+  /**
+   * Handing out an instance counts as activity, so that the evictor does not close an instance just
+   * handed out, before its first request.
+   */
+  private Entry entry(Tenant tenant) {
+    return entries.compute(tenant, (t, e) -> {
+      final Entry entry;
+      if (e == null) {
+        entry = create(t);
+      } else if (e.moodle().isClosed()) {
+        LOGGER.warn("Replacing the closed instance of {}, which callers must not close.", t);
+        Moodle moodle = moodleFactory.apply(t, e.scheduler());
+        entry = new Entry(moodle, Mood.using(moodle), e.scheduler(), e.executor(),
+            e.lastHandedOutNanos());
+      } else {
+        entry = e;
+      }
+      entry.lastHandedOutNanos().set(System.nanoTime());
+      return entry;
+    });
+  }
+
+  private Entry create(Tenant tenant) {
+    TenantLimits tenantLimits = checkNotNull(limits.apply(tenant));
+    LOGGER.debug("Starting {} with {}.", tenant, tenantLimits);
+    RequestScheduler scheduler = RequestScheduler.withCapacity(tenantLimits.connections(),
+        tenantLimits.reservedForInteractive());
+    Moodle moodle = moodleFactory.apply(tenant, scheduler);
+    return new Entry(moodle, Mood.using(moodle), scheduler,
+        QuotaExecutor.on(sharedPool, tenantLimits.threads()), new AtomicLong());
+  }
+
+  /** The returned instance is shared, and must not be closed by the caller. */
+  public Moodle moodle(Tenant tenant) {
+    return entry(tenant).moodle();
+  }
+
+  /** The returned instance is shared, and must not be closed by the caller. */
+  public Mood mood(Tenant tenant) {
+    return entry(tenant).mood();
+  }
+
+  /**
+   * The executor to use for the parallel operations of this tenant (such as
+   * {@link Mood#gradesByAssignmentByGroups(int, Executor)}), running on the shared pool within the
+   * tenant’s thread quota.
+   */
+  public Executor executor(Tenant tenant) {
+    return entry(tenant).executor();
+  }
+
+  public ImmutableSet<Tenant> activeTenants() {
+    return ImmutableSet.copyOf(entries.keySet());
+  }
+
+  public ImmutableMap<Tenant, TenantMetrics> metrics() {
+    return entries.entrySet().stream().collect(
+        ImmutableMap.toImmutableMap(Map.Entry::getKey, e -> metrics(e.getValue())));
+  }
+
+  private static TenantMetrics metrics(Entry entry) {
+    RequestScheduler scheduler = entry.scheduler();
+    int inFlight = 0;
+    int waiting = 0;
+    for (Priority priority : Priority.values()) {
+      inFlight += scheduler.inFlight(priority);
+      waiting += scheduler.waiting(priority);
+    }
+    return new TenantMetrics(scheduler.completed(), scheduler.failed(), scheduler.totalTime(),
+        inFlight, waiting, entry.executor().running(), entry.executor().queued());
+  }
+
+  /**
+   * Closes and drops the instances of the tenants that have no request in flight or waiting, no
+   * task running or queued, and that were neither handed out nor sent a request during the given
+   * duration.
+   *
+   * @return the tenants evicted
+   */
+  public ImmutableSet<Tenant> evictIdle(Duration idleTime) {
+    ImmutableSet.Builder<Tenant> evicted = ImmutableSet.builder();
+    for (Tenant tenant : ImmutableSet.copyOf(entries.keySet())) {
+      Entry remaining = entries.computeIfPresent(tenant, (t, e) -> {
+        if (isIdle(e, idleTime)) {
+          e.moodle().close();
+          return null;
+        }
+        return e;
+      });
+      if (remaining == null) {
+        LOGGER.debug("Evicted idle {}.", tenant);
+        evicted.add(tenant);
+      }
+    }
+    return evicted.build();
+  }
+
+  private static boolean isIdle(Entry entry, Duration idleTime) {
+    return System.nanoTime() - entry.lastHandedOutNanos().get() >= idleTime.toNanos()
+        && entry.scheduler().isIdleSince(idleTime) && entry.executor().running() == 0
+        && entry.executor().queued() == 0;
+  }
+
+  /** Calls {@link #evictIdle(Duration)} periodically, every half idle time. */
+  public synchronized void startEvicting(ScheduledExecutorService executor, Duration idleTime) {
+    checkState(evicting == null, "Already evicting.");
+    long periodMs = Math.max(1, idleTime.toMillis() / 2);
+    evicting = executor.scheduleWithFixedDelay(() -> evictIdle(idleTime), periodMs, periodMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops evicting, and closes all instances handed out. */
+  @Override
+  public synchronized void close() {
+    if (evicting != null) {
+      evicting.cancel(false);
+      evicting = null;
+    }
+    for (Tenant tenant : ImmutableSet.copyOf(entries.keySet())) {
+      Entry removed = entries.remove(tenant);
+      if (removed != null) {
+        removed.moodle().close();
+      }
+    }
+  }
+}
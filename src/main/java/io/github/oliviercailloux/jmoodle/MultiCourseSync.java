@@ -0,0 +1,131 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import io.github.oliviercailloux.jmoodle.raw.RequestScheduler;
+import io.github.oliviercailloux.jmoodle.raw.RequestScheduler.RequestContext;
+import jakarta.json.JsonObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the assignments, gradable users and grades of many courses at once.
+ * <p>
+ * All the fetches of all courses go to one work queue, of which at most {@code parallelism} run at
+ * the same time on the given executor. The requests are sent as {@link RequestContext#bulk(String)
+ * bulk} requests, so that interactive requests sent meanwhile through the same {@link Mood} go
+ * first. A course whose fetch fails is reported in the failures, without affecting the others; its
+ * other fetches are then cancelled.
+ */
+public class MultiCourseSync {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(MultiCourseSync.class);
+
+  public static record CourseData (int courseId, ImmutableSet<Integer> assignmentIds,
+      ImmutableSet<JsonObject> gradableUsers, Table<UserId, Integer, UserGradeFeedback> grades) {
+  }
+
+  public static record SyncResult (ImmutableMap<Integer, CourseData> courses,
+      ImmutableMap<Integer, RuntimeException> failures) {
+    /** The grades of all courses that succeeded, assignment ids being unique across courses. */
+    public ImmutableTable<UserId, Integer, UserGradeFeedback> allGrades() {
+      ImmutableTable.Builder<UserId, Integer, UserGradeFeedback> builder = ImmutableTable.builder();
+      courses.values().forEach(c -> builder.putAll(c.grades()));
+      return builder.build();
+    }
+  }
+
+  public static MultiCourseSync using(Mood mood, Executor executor, int parallelism) {
+    return new MultiCourseSync(mood, QuotaExecutor.on(executor, parallelism),
+        RequestContext.bulk("multi-course sync"));
+  }
+
+  private final Mood mood;
+  private final QuotaExecutor queue;
+  private final RequestContext context;
+
+  private MultiCourseSync(Mood mood, QuotaExecutor queue, RequestContext context) {
+    this.mood = checkNotNull(mood);
+    this.queue = checkNotNull(queue);
+    this.context = checkNotNull(context);
+  }
+
+  public SyncResult syncCategory(int categoryId) {
+    return sync(inContext(() -> mood.courseIdsInCategory(categoryId)), ImmutableMap.of());
+  }
+
+  /** The ids that do not correspond to an existing course are reported as failures. */
+  public SyncResult syncCourses(Set<Integer> courseIds) {
+    ImmutableSet<Integer> existing = inContext(() -> mood.existingCourseIds(courseIds));
+    ImmutableMap<Integer, RuntimeException> missing =
+        Sets.difference(ImmutableSet.copyOf(courseIds), existing).stream()
+            .collect(ImmutableMap.toImmutableMap(i -> i,
+                i -> new IllegalArgumentException("No course with id " + i + ".")));
+    return sync(existing, missing);
+  }
+
+  private <T> T inContext(Supplier<T> code) {
+    return RequestScheduler.as(context, code);
+  }
+
+  private <T> CompletableFuture<T> enqueue(Supplier<T> code) {
+    return CompletableFuture.supplyAsync(() -> inContext(code), queue);
+  }
+
+  private SyncResult sync(Set<Integer> courseIds, Map<Integer, RuntimeException> knownFailures) {
+    Map<Integer, CompletableFuture<CourseData>> futures = new LinkedHashMap<>();
+    for (int courseId : courseIds) {
+      CompletableFuture<ImmutableSet<Integer>> assignmentIds =
+          enqueue(() -> mood.assignmentIds(courseId));
+      CompletableFuture<ImmutableSet<JsonObject>> users =
+          enqueue(() -> mood.gradableUsers(courseId));
+      CompletableFuture<Table<UserId, Integer, UserGradeFeedback>> grades =
+          enqueue(() -> mood.gradesByAssignment(courseId));
+      CompletableFuture<CourseData> course = new CompletableFuture<>();
+      ImmutableList<CompletableFuture<?>> fetches = ImmutableList.of(assignmentIds, users, grades);
+      for (CompletableFuture<?> fetch : fetches) {
+        fetch.whenComplete((r, t) -> {
+          if (t != null && course.completeExceptionally(t)) {
+            /* The fetches that did not start yet will be skipped. */
+            fetches.forEach(f -> f.cancel(false));
+          }
+        });
+      }
+      CompletableFuture.allOf(assignmentIds, users, grades).thenRun(() -> course.complete(
+          new CourseData(courseId, assignmentIds.join(), users.join(), grades.join())));
+      futures.put(courseId, course);
+    }
+
+    ImmutableMap.Builder<Integer, CourseData> courses = ImmutableMap.builder();
+    ImmutableMap.Builder<Integer, RuntimeException> failures = ImmutableMap.builder();
+    failures.putAll(knownFailures);
+    for (Map.Entry<Integer, CompletableFuture<CourseData>> entry : futures.entrySet()) {
+      int courseId = entry.getKey();
+      try {
+        courses.put(courseId, entry.getValue().join());
+      } catch (CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Error err) {
+          throw err;
+        }
+        LOGGER.warn("Failed syncing course {}.", courseId, cause);
+        failures.put(courseId,
+            cause instanceof RuntimeException r ? r : new IllegalStateException(cause));
+      }
+    }
+    return new SyncResult(courses.build(), failures.build());
+  }
+}
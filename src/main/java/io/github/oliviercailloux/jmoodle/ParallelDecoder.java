@@ -0,0 +1,79 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * Decodes the elements of a list, each into zero or more results, splitting the list across a
+ * fork-join pool when it is larger than the threshold. Each task decodes its own sub-list into its
+ * own list, and the partial lists are concatenated when joining, so that no locking is needed and
+ * the results come in the same order as a sequential decoding would give.
+ */
+class ParallelDecoder {
+  /** Below this number of elements, decoding is sequential. */
+  static final int DEFAULT_THRESHOLD = 256;
+
+  public static ParallelDecoder using(ForkJoinPool pool, int threshold) {
+    return new ParallelDecoder(pool, threshold);
+  }
+
+  private class DecodeTask<T, R> extends RecursiveTask<ImmutableList<R>> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<T> elements;
+    private final Function<T, ? extends Iterable<R>> decoder;
+
+    private DecodeTask(List<T> elements, Function<T, ? extends Iterable<R>> decoder) {
+      this.elements = elements;
+      this.decoder = decoder;
+    }
+
+    @Override
+    protected ImmutableList<R> compute() {
+      if (elements.size() <= threshold) {
+        return sequentially(elements, decoder);
+      }
+      int middle = elements.size() / 2;
+      DecodeTask<T, R> left = new DecodeTask<>(elements.subList(0, middle), decoder);
+      DecodeTask<T, R> right =
+          new DecodeTask<>(elements.subList(middle, elements.size()), decoder);
+      left.fork();
+      ImmutableList<R> rightResults = right.compute();
+      ImmutableList<R> leftResults = left.join();
+      return ImmutableList.<R>builderWithExpectedSize(leftResults.size() + rightResults.size())
+          .addAll(leftResults).addAll(rightResults).build();
+    }
+  }
+
+  private static <T, R> ImmutableList<R> sequentially(List<T> elements,
+      Function<T, ? extends Iterable<R>> decoder) {
+    ImmutableList.Builder<R> results = ImmutableList.builder();
+    for (T element : elements) {
+      results.addAll(decoder.apply(element));
+    }
+    return results.build();
+  }
+
+  private final ForkJoinPool pool;
+  private final int threshold;
+
+  private ParallelDecoder(ForkJoinPool pool, int threshold) {
+    checkArgument(threshold >= 1);
+    this.pool = checkNotNull(pool);
+    this.threshold = threshold;
+  }
+
+  public <T, R> ImmutableList<R> decode(List<T> elements,
+      Function<T, ? extends Iterable<R>> decoder) {
+    if (elements.size() <= threshold) {
+      return sequentially(elements, decoder);
+    }
+    return pool.invoke(new DecodeTask<>(elements, decoder));
+  }
+}
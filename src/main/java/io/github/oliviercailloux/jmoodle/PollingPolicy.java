@@ -0,0 +1,43 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Decides how long to wait before polling an assignment again. An assignment that just showed
+ * activity, or whose due date is within the window (before or after), is polled at the minimal
+ * interval; otherwise, the interval doubles at each quiet poll, up to the maximal interval.
+ */
+public record PollingPolicy (Duration minInterval, Duration maxInterval, Duration dueDateWindow) {
+  public static PollingPolicy defaultPolicy() {
+    return new PollingPolicy(Duration.ofSeconds(30), Duration.ofMinutes(30), Duration.ofHours(2));
+  }
+
+  public PollingPolicy {
+    checkArgument(!minInterval.isNegative() && !minInterval.isZero());
+    checkArgument(minInterval.compareTo(maxInterval) <= 0);
+    checkArgument(!dueDateWindow.isNegative());
+  }
+
+  public Duration nextInterval(Duration current, boolean activity, Optional<Instant> dueDate,
+      Instant now) {
+    if (activity || dueDate.map(d -> isNear(d, now)).orElse(false)) {
+      return minInterval;
+    }
+    Duration doubled = current.multipliedBy(2);
+    if (doubled.compareTo(minInterval) < 0) {
+      return minInterval;
+    }
+    if (doubled.compareTo(maxInterval) > 0) {
+      return maxInterval;
+    }
+    return doubled;
+  }
+
+  private boolean isNear(Instant dueDate, Instant now) {
+    return Duration.between(now, dueDate).abs().compareTo(dueDateWindow) <= 0;
+  }
+}
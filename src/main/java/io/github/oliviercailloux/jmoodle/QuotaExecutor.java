@@ -0,0 +1,117 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on a shared executor, with at most {@code quota} of them running at the same time;
+ * the other ones wait in a queue of this executor (not of the shared one), so that they do not
+ * occupy threads of the shared executor.
+ */
+class QuotaExecutor implements Executor {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(QuotaExecutor.class);
+
+  public static QuotaExecutor on(Executor delegate, int quota) {
+    return new QuotaExecutor(delegate, quota);
+  }
+
+  private final Executor delegate;
+  private final int quota;
+  private final Queue<Runnable> queue;
+  private int running;
+
+  private QuotaExecutor(Executor delegate, int quota) {
+    checkArgument(quota >= 1);
+    this.delegate = checkNotNull(delegate);
+    this.quota = quota;
+    this.queue = new ArrayDeque<>();
+    this.running = 0;
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    checkNotNull(command);
+    synchronized (this) {
+      if (running >= quota) {
+        queue.add(command);
+        return;
+      }
+      ++running;
+    }
+    submit(command);
+  }
+
+  private void submit(Runnable command) {
+    try {
+      delegate.execute(() -> runThenNext(command));
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        --running;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Runs the command, then the queued ones that the delegate rejects (for example because it is
+   * shutting down), on this thread, which keeps the slot; so that no queued task is dropped. The
+   * slot is handed over after every task, however it ends; the exception of a task that throws is
+   * propagated, after the rejected task that follows it ran.
+   */
+  private void runThenNext(Runnable command) {
+    Runnable current = command;
+    while (current != null) {
+      boolean completed = false;
+      try {
+        current.run();
+        completed = true;
+      } finally {
+        Runnable next = handOver();
+        if (completed) {
+          current = next;
+        } else if (next != null) {
+          runThenNext(next);
+        }
+      }
+    }
+  }
+
+  /**
+   * Submits the next queued task to the delegate, or frees the slot if there is none.
+   *
+   * @return the next task iff the delegate rejected it
+   */
+  private Runnable handOver() {
+    Runnable next;
+    synchronized (this) {
+      next = queue.poll();
+      if (next == null) {
+        --running;
+        return null;
+      }
+    }
+    try {
+      delegate.execute(() -> runThenNext(next));
+      return null;
+    } catch (RejectedExecutionException e) {
+      LOGGER.debug("Delegate rejected the next task, running it on the current thread.", e);
+      return next;
+    }
+  }
+
+  public synchronized int running() {
+    return running;
+  }
+
+  public synchronized int queued() {
+    return queue.size();
+  }
+}
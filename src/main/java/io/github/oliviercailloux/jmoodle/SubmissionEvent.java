@@ -0,0 +1,8 @@
+package io.github.oliviercailloux.jmoodle;
+
+import java.time.Instant;
+
+public record SubmissionEvent (int assignmentId, UserId userId, int attemptNumber, String status,
+    Instant timeModified) {
+
+}
@@ -0,0 +1,264 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonValue;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a set of assignments for new or updated submissions, and puts a {@link SubmissionEvent}
+ * in the listener queue for each one.
+ * <p>
+ * Each assignment has its own polling interval, adapted by the {@link PollingPolicy} to its recent
+ * activity and due date. Assignments due for a poll at the same time are fetched together, in
+ * batches of at most {@code batchSize} assignments per request, using the {@code since} parameter
+ * of {@code mod_assign_get_submissions} so that only recently modified submissions are returned.
+ * <p>
+ * The first poll of an assignment reports all its existing submissions.
+ */
+public class SubmissionWatcher {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(SubmissionWatcher.class);
+
+  /**
+   * The next poll of an assignment asks for the submissions modified since the latest modification
+   * time seen in the previous answer, which comes from the clock of the server, thus does not
+   * suffer from a skew with the local clock. We ask a bit earlier than that, as a submission being
+   * saved during the previous poll may have been given a slightly earlier time; the duplicates are
+   * then filtered out locally.
+   */
+  private static final Duration OVERLAP = Duration.ofSeconds(10);
+
+  private static final int DEFAULT_BATCH_SIZE = 50;
+
+  private static record SubmissionKey (int assignmentId, UserId userId, int attemptNumber) {
+  }
+
+  private static record SubmissionState (String status, Instant timeModified) {
+  }
+
+  private static class Watched {
+    private final int assignmentId;
+    private final Optional<Instant> dueDate;
+    private Optional<Instant> since;
+    private Duration interval;
+    private Instant nextPoll;
+
+    private Watched(int assignmentId, Optional<Instant> dueDate, Duration interval,
+        Instant nextPoll) {
+      this.assignmentId = assignmentId;
+      this.dueDate = dueDate;
+      this.since = Optional.empty();
+      this.interval = interval;
+      this.nextPoll = nextPoll;
+    }
+  }
+
+  public static SubmissionWatcher watching(Mood mood, BlockingQueue<SubmissionEvent> listener) {
+    return new SubmissionWatcher(mood, listener, PollingPolicy.defaultPolicy(), DEFAULT_BATCH_SIZE,
+        Clock.systemUTC());
+  }
+
+  public static SubmissionWatcher watching(Mood mood, BlockingQueue<SubmissionEvent> listener,
+      PollingPolicy policy, int batchSize, Clock clock) {
+    return new SubmissionWatcher(mood, listener, policy, batchSize, clock);
+  }
+
+  private final Mood mood;
+  private final BlockingQueue<SubmissionEvent> listener;
+  private final PollingPolicy policy;
+  private final int batchSize;
+  private final Clock clock;
+  private final Map<Integer, Watched> watched;
+  private final Map<SubmissionKey, SubmissionState> known;
+  private final Object polling;
+  private ScheduledFuture<?> ticking;
+
+  private SubmissionWatcher(Mood mood, BlockingQueue<SubmissionEvent> listener,
+      PollingPolicy policy, int batchSize, Clock clock) {
+    checkArgument(batchSize >= 1);
+    this.mood = checkNotNull(mood);
+    this.listener = checkNotNull(listener);
+    this.policy = checkNotNull(policy);
+    this.batchSize = batchSize;
+    this.clock = checkNotNull(clock);
+    this.watched = new LinkedHashMap<>();
+    this.known = new HashMap<>();
+    this.polling = new Object();
+    this.ticking = null;
+  }
+
+  /** The assignment will be polled at the next call to {@link #pollDue()}. */
+  public synchronized void watch(int assignmentId, Optional<Instant> dueDate) {
+    checkArgument(!watched.containsKey(assignmentId));
+    watched.put(assignmentId,
+        new Watched(assignmentId, dueDate, policy.minInterval(), clock.instant()));
+  }
+
+  public synchronized void unwatch(int assignmentId) {
+    checkArgument(watched.containsKey(assignmentId));
+    watched.remove(assignmentId);
+    known.keySet().removeIf(k -> k.assignmentId() == assignmentId);
+  }
+
+  public synchronized ImmutableSet<Integer> watchedAssignmentIds() {
+    return ImmutableSet.copyOf(watched.keySet());
+  }
+
+  /**
+   * Polls every assignment whose next poll time has come, and puts the new or updated submissions
+   * in the listener queue. The requests are sent, and the events put, without holding the lock
+   * that the other methods take, so that they do not wait for the network or for the listener.
+   * Concurrent calls to this method run one after the other.
+   *
+   * @return the number of events sent to the listener
+   * @throws InterruptedException if interrupted while waiting for space in the listener queue; the
+   *         submission whose event was not sent will be reported again at the next poll
+   */
+  public int pollDue() throws InterruptedException {
+    synchronized (polling) {
+      Instant now = clock.instant();
+      ImmutableList<Watched> withoutSince;
+      ImmutableList<Watched> withSince;
+      synchronized (this) {
+        ImmutableList<Watched> due = watched.values().stream()
+            .filter(w -> !w.nextPoll.isAfter(now)).collect(ImmutableList.toImmutableList());
+        /*
+         * An assignment without watermark (one that never returned a submission) would make its
+         * whole batch be fetched without since, thus these are never batched with the others.
+         */
+        withoutSince =
+            due.stream().filter(w -> w.since.isEmpty()).collect(ImmutableList.toImmutableList());
+        /*
+         * Sorting by since groups together the assignments with similar watermarks, so that the
+         * since of each batch (its earliest one) is close to the since of each of its assignments.
+         */
+        withSince = due.stream().filter(w -> w.since.isPresent())
+            .sorted(Comparator.comparing((Watched w) -> w.since.orElseThrow()))
+            .collect(ImmutableList.toImmutableList());
+      }
+      int sent = 0;
+      for (List<Watched> batch : Iterables.concat(Iterables.partition(withoutSince, batchSize),
+          Iterables.partition(withSince, batchSize))) {
+        sent += poll(batch, now);
+      }
+      return sent;
+    }
+  }
+
+  private int poll(List<Watched> batch, Instant now) throws InterruptedException {
+    ImmutableSet<Integer> ids =
+        batch.stream().map(w -> w.assignmentId).collect(ImmutableSet.toImmutableSet());
+    /* The watermarks only change while polling, thus can be read without the lock. */
+    Optional<Instant> since = batch.stream().map(w -> w.since)
+        .reduce((s1, s2) -> s1.isEmpty() || s2.isEmpty() ? Optional.empty()
+            : Optional.of(s1.get().isBefore(s2.get()) ? s1.get() : s2.get()))
+        .orElseThrow();
+    LOGGER.debug("Polling {} since {}.", ids, since);
+    ImmutableSet<JsonObject> assignments = mood.submissions(ids, since);
+
+    int sent = 0;
+    Map<Integer, Integer> activity = new HashMap<>();
+    Map<Integer, Instant> latestModified = new HashMap<>();
+    for (JsonObject assignment : assignments) {
+      checkState(assignment.containsKey("assignmentid"), assignment);
+      int assignmentId = assignment.getInt("assignmentid");
+      checkState(ids.contains(assignmentId), assignment);
+      JsonArray submissions = assignment.getJsonArray("submissions");
+      for (JsonValue submissionValue : submissions) {
+        JsonObject submission = (JsonObject) submissionValue;
+        SubmissionKey key = new SubmissionKey(assignmentId, new UserId(submission.getInt("userid")),
+            submission.getInt("attemptnumber"));
+        SubmissionState state = new SubmissionState(submission.getString("status"),
+            Instant.ofEpochSecond(submission.getJsonNumber("timemodified").longValueExact()));
+        latestModified.merge(assignmentId, state.timeModified(),
+            (t1, t2) -> t1.isAfter(t2) ? t1 : t2);
+        if (isKnown(key, state)) {
+          continue;
+        }
+        listener.put(new SubmissionEvent(assignmentId, key.userId(), key.attemptNumber(),
+            state.status(), state.timeModified()));
+        /* Only now, so that an interruption while waiting for the listener loses nothing. */
+        record(key, state);
+        activity.merge(assignmentId, 1, Integer::sum);
+        ++sent;
+      }
+    }
+
+    synchronized (this) {
+      for (Watched w : batch) {
+        if (watched.get(w.assignmentId) != w) {
+          /* Unwatched meanwhile. */
+          continue;
+        }
+        boolean active = activity.containsKey(w.assignmentId);
+        Instant latest = latestModified.get(w.assignmentId);
+        if (latest != null) {
+          w.since = Optional.of(latest.minus(OVERLAP));
+        }
+        w.interval = policy.nextInterval(w.interval, active, w.dueDate, now);
+        w.nextPoll = now.plus(w.interval);
+      }
+    }
+    return sent;
+  }
+
+  private synchronized boolean isKnown(SubmissionKey key, SubmissionState state) {
+    return state.equals(known.get(key));
+  }
+
+  private synchronized void record(SubmissionKey key, SubmissionState state) {
+    if (watched.containsKey(key.assignmentId())) {
+      known.put(key, state);
+    }
+  }
+
+  /**
+   * Calls {@link #pollDue()} repeatedly on the given executor, every minimal interval of the
+   * policy. A tick only sends requests for the assignments that are due, so ticking is cheap when
+   * everything is quiet.
+   */
+  public synchronized void start(ScheduledExecutorService executor) {
+    checkState(ticking == null, "Already started.");
+    long periodMs = policy.minInterval().toMillis();
+    ticking = executor.scheduleWithFixedDelay(this::tick, 0, periodMs, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    checkState(ticking != null, "Not started.");
+    ticking.cancel(false);
+    ticking = null;
+  }
+
+  private void tick() {
+    try {
+      pollDue();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      /* Must not propagate, as this would silently cancel the subsequent ticks. */
+      LOGGER.warn("Polling failed, will retry at next tick.", e);
+    }
+  }
+}
@@ -5,11 +5,13 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Verify.verify;
 
+import com.google.common.base.Suppliers;
 import com.google.common.base.VerifyException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import io.github.oliviercailloux.jaris.credentials.CredentialsReader;
 import jakarta.json.Json;
+import jakarta.json.JsonArray;
 import jakarta.json.JsonNumber;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonReader;
@@ -18,16 +20,20 @@ import jakarta.json.JsonString;
 import jakarta.json.JsonValue;
 import jakarta.json.stream.JsonGenerator;
 import jakarta.ws.rs.client.Client;
-import jakarta.ws.rs.client.ClientBuilder;
+import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.UriBuilder;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.RecordComponent;
 import java.net.URI;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
@@ -39,7 +45,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.slf4j.Logger;
@@ -50,10 +59,12 @@ import org.slf4j.LoggerFactory;
  * <code>Optional&lt;?></code> for optional parameters except when it’s a collection or a string, in
  * which case emptiness corresponds to missing.
  */
-public class Moodle {
+public class Moodle implements AutoCloseable {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = LoggerFactory.getLogger(Moodle.class);
 
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
   private static ImmutableMap<String, Object> prefixes(Object o) {
     if (o instanceof List<?> || o instanceof Set<?>) {
       Collection<?> coll = (Collection<?>) o;
@@ -119,71 +130,189 @@ public class Moodle {
     return builder.build();
   }
 
+  /**
+   * Returns an instance using the process-wide shared transport, which reads the {@code API_KEY}
+   * credential only when sending its first request.
+   */
   public static Moodle instance(URI moodleServer) {
-    return new Moodle(moodleServer, CredentialsReader.keyReader().getCredentials().API_KEY(),
-        ClientBuilder.newClient(), Json.createReaderFactory(ImmutableMap.of()));
+    return shared(moodleServer,
+        Suppliers.memoize(() -> CredentialsReader.keyReader().getCredentials().API_KEY()),
+        RequestScheduler.unlimited());
+  }
+
+  /** Returns an instance using the process-wide shared transport. */
+  public static Moodle instance(URI moodleServer, String apiKey, RequestScheduler scheduler) {
+    return shared(moodleServer, Suppliers.ofInstance(checkNotNull(apiKey)), scheduler);
+  }
+
+  private static Moodle shared(URI moodleServer, Supplier<String> apiKey,
+      RequestScheduler scheduler) {
+    SharedTransport.register();
+    return new Moodle(moodleServer, apiKey, Suppliers.memoize(SharedTransport::client),
+        Suppliers.memoize(SharedTransport::jsonReaderFactory), scheduler,
+        SharedTransport::unregister);
   }
 
+  /** The given client is not closed when this instance is closed. */
   public static Moodle instance(URI moodleServer, String apiKey, Client client,
       JsonReaderFactory jsonReaderFactory) {
-    return new Moodle(moodleServer, apiKey, client, jsonReaderFactory);
+    return instance(moodleServer, apiKey, client, jsonReaderFactory,
+        RequestScheduler.unlimited());
+  }
+
+  /** The given client is not closed when this instance is closed. */
+  public static Moodle instance(URI moodleServer, String apiKey, Client client,
+      JsonReaderFactory jsonReaderFactory, RequestScheduler scheduler) {
+    return new Moodle(moodleServer, Suppliers.ofInstance(checkNotNull(apiKey)),
+        Suppliers.ofInstance(checkNotNull(client)),
+        Suppliers.ofInstance(checkNotNull(jsonReaderFactory)), scheduler, () -> {
+        });
   }
 
   private final URI moodleServer;
-  private final String apiKey;
-  private final Client client;
-  private final JsonReaderFactory jsonReaderFactory;
+  private final Supplier<String> apiKey;
+  private final Supplier<Client> client;
+  private final Supplier<JsonReaderFactory> jsonReaderFactory;
+  private final RequestScheduler scheduler;
+  private final Runnable onClose;
+  private final AtomicBoolean closed;
+  private final LongAdder measuredCalls;
+  private final LongAdder allocatedBytes;
   boolean dump;
 
-  private Moodle(URI moodleServer, String apiKey, Client client,
-      JsonReaderFactory jsonReaderFactory) {
-    this.moodleServer = moodleServer;
+  private Moodle(URI moodleServer, Supplier<String> apiKey, Supplier<Client> client,
+      Supplier<JsonReaderFactory> jsonReaderFactory, RequestScheduler scheduler,
+      Runnable onClose) {
+    this.moodleServer = checkNotNull(moodleServer);
     this.apiKey = apiKey;
     this.client = client;
     this.jsonReaderFactory = jsonReaderFactory;
+    this.scheduler = checkNotNull(scheduler);
+    this.onClose = onClose;
+    this.closed = new AtomicBoolean(false);
+    this.measuredCalls = new LongAdder();
+    this.allocatedBytes = new LongAdder();
     this.dump = false;
   }
 
-  private JsonObject parse(String jsonAnswer) {
-    checkNotNull(jsonAnswer);
-    LOGGER.debug("Json answer: {}.", jsonAnswer);
-    JsonObject full;
-    try (JsonReader jr = jsonReaderFactory.createReader(new StringReader(jsonAnswer))) {
-      full = jr.readObject();
+  /**
+   * Releases the shared transport, if this instance uses it; closing the last such instance closes
+   * the shared client. Subsequent requests through this instance fail. Idempotent.
+   */
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      onClose.run();
     }
-    if (dump) {
-      try (Writer w = Files.newBufferedWriter(Path.of("answer.json"))) {
-        Json.createWriterFactory(ImmutableMap.of(JsonGenerator.PRETTY_PRINTING, true))
-            .createWriter(w).write(full);
+  }
+
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+  public RequestScheduler scheduler() {
+    return scheduler;
+  }
+
+  private static long currentThreadAllocatedBytes() {
+    if (THREADS instanceof com.sun.management.ThreadMXBean threads
+        && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+      return threads.getCurrentThreadAllocatedBytes();
+    }
+    return -1;
+  }
+
+  /**
+   * Sends the request when the scheduler allows, reads the answer into a pooled buffer, and parses
+   * it from the buffer. The buffer is acquired only once the scheduler grants the slot, so that
+   * requests waiting for a slot do not hold buffers.
+   */
+  private JsonValue exchange(Supplier<InputStream> request) {
+    long allocatedBefore = currentThreadAllocatedBytes();
+    ResponseBuffers.Buffer buffer = scheduler.schedule(() -> {
+      ResponseBuffers.Buffer acquired = ResponseBuffers.SHARED.acquire();
+      boolean read = false;
+      try (InputStream answer = request.get()) {
+        acquired.readFrom(answer);
+        read = true;
       } catch (IOException e) {
         throw new UncheckedIOException(e);
+      } finally {
+        if (!read) {
+          ResponseBuffers.SHARED.release(acquired);
+        }
+      }
+      return acquired;
+    });
+    JsonValue full;
+    try {
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Json answer: {}.", buffer.asString());
       }
+      try (JsonReader jr =
+          jsonReaderFactory.get().createReader(buffer.asInputStream(), StandardCharsets.UTF_8)) {
+        full = jr.readValue();
+      }
+    } finally {
+      ResponseBuffers.SHARED.release(buffer);
+    }
+    if (allocatedBefore != -1) {
+      allocatedBytes.add(currentThreadAllocatedBytes() - allocatedBefore);
+      measuredCalls.increment();
     }
-    checkState(full.containsKey("warnings"), full);
-    Set<String> keys = new LinkedHashSet<>(full.keySet());
-    checkState(keys.size() == 2, keys);
     return full;
   }
 
-  /** Iff the answer is null, returns null. */
-  public JsonObject send(String wsFunction, Map<String, ?> parameters) {
+  /** The memory allocated for the requests sent so far through this instance. */
+  public ResponseAllocation responseAllocation() {
+    return new ResponseAllocation(measuredCalls.sum(), allocatedBytes.sum());
+  }
+
+  private JsonValue get(String wsFunction, Map<String, ?> parameters) {
+    checkState(!closed.get(), "Closed.");
     UriBuilder uriBuilder = UriBuilder.fromUri(moodleServer);
     uriBuilder.queryParam("moodlewsrestformat", "json");
-    uriBuilder.queryParam("wstoken", apiKey);
+    uriBuilder.queryParam("wstoken", apiKey.get());
     uriBuilder.queryParam("wsfunction", wsFunction);
     ImmutableMap<String, String> solved = solve(parameters);
     for (Map.Entry<String, String> entry : solved.entrySet()) {
       uriBuilder.queryParam(entry.getKey(), entry.getValue());
     }
 
-    String answer = client.target(uriBuilder).request().get(String.class);
-    if (answer.equals("null")) {
+    return exchange(() -> client.get().target(uriBuilder).request().get(InputStream.class));
+  }
+
+  /** Iff the answer is null, returns null. */
+  public JsonObject send(String wsFunction, Map<String, ?> parameters) {
+    JsonValue answer = get(wsFunction, parameters);
+    if (answer.equals(JsonValue.NULL)) {
       return null;
     }
-    JsonObject full = parse(answer);
+    checkState(answer instanceof JsonObject, answer);
+    JsonObject full = (JsonObject) answer;
+    if (dump) {
+      try (Writer w = Files.newBufferedWriter(Path.of("answer.json"))) {
+        Json.createWriterFactory(ImmutableMap.of(JsonGenerator.PRETTY_PRINTING, true))
+            .createWriter(w).write(full);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    checkState(full.containsKey("warnings"), full);
+    Set<String> keys = new LinkedHashSet<>(full.keySet());
+    checkState(keys.size() == 2, keys);
     return full;
   }
 
+  /**
+   * For the few functions that answer with a bare array instead of an object containing warnings.
+   */
+  public JsonArray sendForArray(String wsFunction, Map<String, ?> parameters) {
+    JsonValue full = get(wsFunction, parameters);
+    checkState(full instanceof JsonArray, full);
+    return (JsonArray) full;
+  }
+
   public JsonObject tool_mobile_get_plugins_supporting_mobile() {
     return send("tool_mobile_get_plugins_supporting_mobile", ImmutableMap.of());
   }
@@ -205,6 +334,34 @@ public class Moodle {
     return send("core_course_get_courses", parameters);
   }
 
+  /**
+   * Uploads a file to a draft area of the user, using {@code webservice/upload.php} (next to the
+   * REST server), streaming the content from the channel (which is not closed). Use item id zero
+   * to create a new draft area.
+   *
+   * @return the description of the uploaded file, including its {@code itemid}
+   */
+  public JsonObject upload(int itemid, String filename, ReadableByteChannel content) {
+    checkState(!closed.get(), "Closed.");
+    UriBuilder uriBuilder = UriBuilder.fromUri(moodleServer.resolve("../upload.php"));
+    uriBuilder.queryParam("token", apiKey.get());
+    uriBuilder.queryParam("filearea", "draft");
+    uriBuilder.queryParam("itemid", itemid);
+    MultipartFile body = MultipartFile.of(filename, content);
+    /* Without chunked encoding, Jersey buffers the whole entity to compute its length. */
+    JsonValue full = exchange(() -> client.get().target(uriBuilder).request()
+        .property("jersey.config.client.request.entity.processing", "CHUNKED")
+        .post(Entity.entity(body, body.mediaType()), InputStream.class));
+    checkState(full instanceof JsonArray, full);
+    JsonArray files = (JsonArray) full;
+    checkState(files.size() == 1, files);
+    return files.getJsonObject(0);
+  }
+
+  public JsonArray core_group_get_course_groups(int courseid) {
+    return sendForArray("core_group_get_course_groups", ImmutableMap.of("courseid", courseid));
+  }
+
   public JsonObject mod_assign_get_assignments(Set<Integer> courseids, Set<String> capabilities,
       Optional<Boolean> includenotenrolledcourses) {
     ImmutableMap<String, ?> parameters = ImmutableMap.of("courseids", courseids, "capabilities",
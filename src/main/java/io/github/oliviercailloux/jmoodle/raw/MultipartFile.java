@@ -0,0 +1,72 @@
+package io.github.oliviercailloux.jmoodle.raw;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A multipart/form-data body made of a single file, whose content is copied from its channel
+ * directly to the request stream while the request is sent, instead of being loaded in memory
+ * first. A {@link FileChannel} is copied with {@link FileChannel#transferTo}.
+ */
+class MultipartFile implements StreamingOutput {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  public static MultipartFile of(String filename, ReadableByteChannel content) {
+    return new MultipartFile("----jmoodle" + UUID.randomUUID().toString().replace("-", ""),
+        filename, content);
+  }
+
+  private final String boundary;
+  private final String filename;
+  private final ReadableByteChannel content;
+
+  private MultipartFile(String boundary, String filename, ReadableByteChannel content) {
+    this.boundary = boundary;
+    this.filename = checkNotNull(filename);
+    this.content = checkNotNull(content);
+  }
+
+  public MediaType mediaType() {
+    return new MediaType("multipart", "form-data", Map.of("boundary", boundary));
+  }
+
+  @Override
+  public void write(OutputStream output) throws IOException {
+    String escaped = filename.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    String head = "--" + boundary + "\r\n"
+        + "Content-Disposition: form-data; name=\"file_1\"; filename=\"" + escaped + "\"\r\n"
+        + "Content-Type: application/octet-stream\r\n\r\n";
+    output.write(head.getBytes(StandardCharsets.UTF_8));
+    WritableByteChannel target = Channels.newChannel(output);
+    if (content instanceof FileChannel fileChannel) {
+      long position = fileChannel.position();
+      long size = fileChannel.size();
+      while (position < size) {
+        position += fileChannel.transferTo(position, size - position, target);
+      }
+    } else {
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      while (content.read(buffer) != -1) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          target.write(buffer);
+        }
+        buffer.clear();
+      }
+    }
+    output.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    output.flush();
+  }
+}
@@ -0,0 +1,287 @@
+package io.github.oliviercailloux.jmoodle.raw;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Decides when each request sent through a {@link Moodle} instance may go to the server.
+ * <p>
+ * At most {@code capacity} requests are in flight at any time. Among those, {@code reserved} slots
+ * can only be used by {@link Priority#INTERACTIVE} requests, so that interactive lookups always get
+ * a share of the connections, even when a bulk job saturates the others. When a slot frees up,
+ * waiting interactive requests go first: bulk jobs yield between any two of their requests.
+ * Within a priority class, the waiting requests are served round-robin across callers, so that one
+ * caller (a tenant, a job…) queuing many requests does not delay the others by as much.
+ * <p>
+ * The priority and caller of the requests sent by the current thread are given by
+ * {@link #as(RequestContext, Supplier)}; the default is interactive, with an empty caller.
+ */
+public class RequestScheduler {
+  public static enum Priority {
+    INTERACTIVE, BULK
+  }
+
+  public static record RequestContext (Priority priority, String caller) {
+    public static final RequestContext DEFAULT = new RequestContext(Priority.INTERACTIVE, "");
+
+    public static RequestContext interactive(String caller) {
+      return new RequestContext(Priority.INTERACTIVE, caller);
+    }
+
+    public static RequestContext bulk(String caller) {
+      return new RequestContext(Priority.BULK, caller);
+    }
+
+    public RequestContext {
+      checkNotNull(priority);
+      checkNotNull(caller);
+    }
+  }
+
+  private static final ThreadLocal<RequestContext> CONTEXT =
+      ThreadLocal.withInitial(() -> RequestContext.DEFAULT);
+
+  /** Runs the given code with the given context for all requests it sends from this thread. */
+  public static <T> T as(RequestContext context, Supplier<T> code) {
+    RequestContext previous = CONTEXT.get();
+    CONTEXT.set(checkNotNull(context));
+    try {
+      return code.get();
+    } finally {
+      CONTEXT.set(previous);
+    }
+  }
+
+  public static RequestContext currentContext() {
+    return CONTEXT.get();
+  }
+
+  /**
+   * Returns a supplier that runs the given one with the context of the current thread, whatever
+   * thread it is later run on.
+   */
+  public static <T> Supplier<T> propagatingContext(Supplier<T> code) {
+    RequestContext context = currentContext();
+    return () -> as(context, code);
+  }
+
+  public static RequestScheduler unlimited() {
+    return new RequestScheduler(Integer.MAX_VALUE, 0);
+  }
+
+  public static RequestScheduler withCapacity(int capacity, int reserved) {
+    return new RequestScheduler(capacity, reserved);
+  }
+
+  private static class Ticket {
+    private final Condition grantedCondition;
+    private boolean granted;
+
+    private Ticket(Condition grantedCondition) {
+      this.grantedCondition = grantedCondition;
+      this.granted = false;
+    }
+  }
+
+  private final int capacity;
+  private final int reserved;
+  private final ReentrantLock lock;
+  /** Per priority, waiting tickets per caller, callers in round-robin order. */
+  private final EnumMap<Priority, LinkedHashMap<String, Queue<Ticket>>> waiting;
+  private final EnumMap<Priority, Integer> inFlight;
+  private final LongAdder completed;
+  private final LongAdder failed;
+  private final LongAdder totalNanos;
+  private volatile long lastActivityNanos;
+
+  private RequestScheduler(int capacity, int reserved) {
+    checkArgument(capacity >= 1);
+    checkArgument(0 <= reserved && reserved < capacity);
+    this.capacity = capacity;
+    this.reserved = reserved;
+    this.lock = new ReentrantLock();
+    this.waiting = new EnumMap<>(Priority.class);
+    this.inFlight = new EnumMap<>(Priority.class);
+    for (Priority priority : Priority.values()) {
+      waiting.put(priority, new LinkedHashMap<>());
+      inFlight.put(priority, 0);
+    }
+    this.completed = new LongAdder();
+    this.failed = new LongAdder();
+    this.totalNanos = new LongAdder();
+    this.lastActivityNanos = System.nanoTime();
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public int reserved() {
+    return reserved;
+  }
+
+  public int inFlight(Priority priority) {
+    lock.lock();
+    try {
+      return inFlight.get(priority);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int waiting(Priority priority) {
+    lock.lock();
+    try {
+      return waiting.get(priority).values().stream().mapToInt(Queue::size).sum();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** The number of requests that completed normally so far. */
+  public long completed() {
+    return completed.sum();
+  }
+
+  /** The number of requests that ended with an exception so far. */
+  public long failed() {
+    return failed.sum();
+  }
+
+  /** The total time spent in requests so far (excluding waiting for a slot). */
+  public Duration totalTime() {
+    return Duration.ofNanos(totalNanos.sum());
+  }
+
+  /** Whether no request is waiting or in flight and none ended during the given duration. */
+  public boolean isIdleSince(Duration duration) {
+    lock.lock();
+    try {
+      return totalInFlight() == 0 && waiting.values().stream().allMatch(Map::isEmpty)
+          && System.nanoTime() - lastActivityNanos >= duration.toNanos();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits for a slot according to the context of the current thread, then runs the request and
+   * frees the slot.
+   *
+   * @throws IllegalStateException if interrupted while waiting for a slot (the interrupt status is
+   *         then set again), in which case the request is not run
+   */
+  <T> T schedule(Supplier<T> request) {
+    RequestContext context = currentContext();
+    acquire(context);
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      T result = request.get();
+      success = true;
+      return result;
+    } finally {
+      totalNanos.add(System.nanoTime() - start);
+      (success ? completed : failed).increment();
+      release(context.priority());
+    }
+  }
+
+  private void acquire(RequestContext context) {
+    lock.lock();
+    try {
+      Ticket ticket = new Ticket(lock.newCondition());
+      waiting.get(context.priority()).computeIfAbsent(context.caller(), c -> new ArrayDeque<>())
+          .add(ticket);
+      dispatch();
+      while (!ticket.granted) {
+        try {
+          ticket.grantedCondition.await();
+        } catch (InterruptedException e) {
+          abandon(context, ticket);
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting for a slot.", e);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Withdraws the ticket from its queue, or frees its slot if it was granted meanwhile. */
+  private void abandon(RequestContext context, Ticket ticket) {
+    if (ticket.granted) {
+      inFlight.put(context.priority(), inFlight.get(context.priority()) - 1);
+      dispatch();
+      return;
+    }
+    LinkedHashMap<String, Queue<Ticket>> callers = waiting.get(context.priority());
+    Queue<Ticket> queue = callers.get(context.caller());
+    queue.remove(ticket);
+    if (queue.isEmpty()) {
+      callers.remove(context.caller());
+    }
+  }
+
+  private void release(Priority priority) {
+    lock.lock();
+    try {
+      int current = inFlight.get(priority);
+      checkState(current >= 1);
+      inFlight.put(priority, current - 1);
+      lastActivityNanos = System.nanoTime();
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private int totalInFlight() {
+    return inFlight.values().stream().mapToInt(i -> i).sum();
+  }
+
+  private void dispatch() {
+    while (totalInFlight() < capacity) {
+      if (grantNext(Priority.INTERACTIVE)) {
+        continue;
+      }
+      if (inFlight.get(Priority.BULK) < capacity - reserved && grantNext(Priority.BULK)) {
+        continue;
+      }
+      break;
+    }
+  }
+
+  /** Grants the head ticket of the first caller in line, and sends that caller to the back. */
+  private boolean grantNext(Priority priority) {
+    LinkedHashMap<String, Queue<Ticket>> callers = waiting.get(priority);
+    Iterator<Map.Entry<String, Queue<Ticket>>> it = callers.entrySet().iterator();
+    if (!it.hasNext()) {
+      return false;
+    }
+    Map.Entry<String, Queue<Ticket>> first = it.next();
+    it.remove();
+    Queue<Ticket> queue = first.getValue();
+    Ticket ticket = queue.remove();
+    if (!queue.isEmpty()) {
+      callers.put(first.getKey(), queue);
+    }
+    ticket.granted = true;
+    inFlight.put(priority, inFlight.get(priority) + 1);
+    ticket.grantedCondition.signal();
+    return true;
+  }
+}
@@ -0,0 +1,12 @@
+package io.github.oliviercailloux.jmoodle.raw;
+
+/**
+ * The heap memory allocated by the threads sending requests, from sending each request to having
+ * parsed its answer, as measured by the JVM per thread. Requests are counted only when the JVM
+ * supports this measure.
+ */
+public record ResponseAllocation (long calls, long allocatedBytes) {
+  public long bytesPerCall() {
+    return calls == 0 ? 0 : allocatedBytes / calls;
+  }
+}
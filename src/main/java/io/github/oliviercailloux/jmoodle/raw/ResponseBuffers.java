@@ -0,0 +1,101 @@
+package io.github.oliviercailloux.jmoodle.raw;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A pool of growable byte arrays into which answers are read, so that the (UTF-8) bytes of an
+ * answer can be parsed directly, without building a String, and without allocating a new array for
+ * each answer. Arrays that grew larger than the retention limit are not pooled again, so that one
+ * huge answer does not pin its memory forever; and arrays are not pooled beyond a total size, so
+ * that a few large answers do not pin large arrays in every slot of the pool.
+ */
+class ResponseBuffers {
+  private static final int INITIAL_SIZE = 64 * 1024;
+  private static final int MAX_RETAINED_SIZE = 16 * 1024 * 1024;
+  private static final long MAX_RETAINED_TOTAL = 32 * 1024 * 1024;
+
+  static final ResponseBuffers SHARED =
+      new ResponseBuffers(2 * Runtime.getRuntime().availableProcessors(), MAX_RETAINED_TOTAL);
+
+  static class Buffer {
+    private byte[] bytes;
+    private int length;
+
+    private Buffer(byte[] bytes) {
+      this.bytes = bytes;
+      this.length = 0;
+    }
+
+    void readFrom(InputStream input) throws IOException {
+      length = 0;
+      while (true) {
+        if (length == bytes.length) {
+          byte[] larger = new byte[Math.multiplyExact(bytes.length, 2)];
+          System.arraycopy(bytes, 0, larger, 0, length);
+          bytes = larger;
+        }
+        int read = input.read(bytes, length, bytes.length - length);
+        if (read == -1) {
+          return;
+        }
+        length += read;
+      }
+    }
+
+    int length() {
+      return length;
+    }
+
+    InputStream asInputStream() {
+      return new ByteArrayInputStream(bytes, 0, length);
+    }
+
+    String asString() {
+      return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+  }
+
+  private final int maxPooled;
+  private final long maxPooledBytes;
+  private final Deque<Buffer> pool;
+  private long pooledBytes;
+
+  ResponseBuffers(int maxPooled, long maxPooledBytes) {
+    checkArgument(maxPooled >= 1);
+    checkArgument(maxPooledBytes >= INITIAL_SIZE);
+    this.maxPooled = maxPooled;
+    this.maxPooledBytes = maxPooledBytes;
+    this.pool = new ArrayDeque<>();
+    this.pooledBytes = 0;
+  }
+
+  synchronized Buffer acquire() {
+    Buffer buffer = pool.poll();
+    if (buffer == null) {
+      return new Buffer(new byte[INITIAL_SIZE]);
+    }
+    pooledBytes -= buffer.bytes.length;
+    return buffer;
+  }
+
+  synchronized void release(Buffer buffer) {
+    int size = buffer.bytes.length;
+    if (size <= MAX_RETAINED_SIZE && pool.size() < maxPooled
+        && pooledBytes + size <= maxPooledBytes) {
+      buffer.length = 0;
+      pool.push(buffer);
+      pooledBytes += size;
+    }
+  }
+
+  synchronized long pooledBytes() {
+    return pooledBytes;
+  }
+}
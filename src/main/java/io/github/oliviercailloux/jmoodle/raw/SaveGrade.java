@@ -32,4 +32,14 @@ public record SaveGrade (int userid, double grade, int attemptnumber, boolean ad
         Optional.of(new GradePluginData(Optional.of(feedback), Optional.empty())),
         Optional.empty());
   }
+
+  /**
+   * @param filesItemId the item id of a draft area containing the feedback files, as returned by
+   *        {@code Mood#uploadToNewDraftArea}
+   */
+  public SaveGrade withFeedback(Feedback feedback, int filesItemId) {
+    return new SaveGrade(userid, grade, attemptnumber, addattempt, workflowstate,
+        Optional.of(new GradePluginData(Optional.of(feedback), Optional.of(filesItemId))),
+        Optional.empty());
+  }
 }
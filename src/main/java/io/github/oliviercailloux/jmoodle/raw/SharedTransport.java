@@ -0,0 +1,60 @@
+package io.github.oliviercailloux.jmoodle.raw;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableMap;
+import jakarta.json.Json;
+import jakarta.json.JsonReaderFactory;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The process-wide transport used by default by {@link Moodle} instances. Building a client (and
+ * discovering the JAX-RS and JSON providers) is costly, so it is built only when a first request is
+ * about to be sent, and then shared. The client is closed when the last registered instance is
+ * closed (and built again if needed later).
+ */
+final class SharedTransport {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(SharedTransport.class);
+
+  private static class ReaderFactoryHolder {
+    private static final JsonReaderFactory READER_FACTORY =
+        Json.createReaderFactory(ImmutableMap.of());
+  }
+
+  private static int users = 0;
+  private static Client client = null;
+
+  private SharedTransport() {
+  }
+
+  static synchronized void register() {
+    ++users;
+  }
+
+  static synchronized void unregister() {
+    checkState(users >= 1);
+    --users;
+    if (users == 0 && client != null) {
+      LOGGER.debug("Closing the shared client.");
+      client.close();
+      client = null;
+    }
+  }
+
+  static synchronized Client client() {
+    checkState(users >= 1);
+    if (client == null) {
+      LOGGER.debug("Building the shared client.");
+      client = ClientBuilder.newClient();
+    }
+    return client;
+  }
+
+  static JsonReaderFactory jsonReaderFactory() {
+    return ReaderFactoryHolder.READER_FACTORY;
+  }
+}
@@ -0,0 +1,66 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import io.github.oliviercailloux.jmoodle.raw.Feedback;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.DoubleSummaryStatistics;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GradesWriterTests {
+  private static ImmutableList<UserGradeFeedback> grades(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> new UserGradeFeedback(new UserId(i / 3), "User " + (i / 3), i % 3,
+            "Assignment " + (i % 3), i % 3 * 10d + i % 7,
+            i % 2 == 0 ? Feedback.plain("Très bien, \"vraiment\"") : Feedback.html("<p>" + i)))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  @Test
+  void testColumnar(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("grades.bin");
+    ImmutableList<UserGradeFeedback> grades = grades(10_000);
+    try (GradesWriter writer = GradesWriter.columnar(file)) {
+      grades.forEach(writer::write);
+    }
+    try (ColumnarGradesReader reader = ColumnarGradesReader.open(file)) {
+      assertEquals(10_000, reader.rowCount());
+      assertEquals(grades, reader.rows());
+      DoubleSummaryStatistics expected =
+          grades.stream().filter(g -> g.assignmentId() == 1).mapToDouble(g -> g.grade())
+              .summaryStatistics();
+      DoubleSummaryStatistics actual = reader.gradeStatisticsByAssignment().get(1);
+      assertEquals(expected.getCount(), actual.getCount());
+      assertEquals(expected.getSum(), actual.getSum());
+      assertEquals(grades.stream().mapToDouble(g -> g.grade()).sum(),
+          reader.gradeStatistics().getSum());
+    }
+  }
+
+  @Test
+  void testColumnarEmpty(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("grades.bin");
+    GradesWriter.columnar(file).close();
+    try (ColumnarGradesReader reader = ColumnarGradesReader.open(file)) {
+      assertEquals(ImmutableList.of(), reader.rows());
+    }
+  }
+
+  @Test
+  void testCsv(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("grades.csv");
+    try (GradesWriter writer = GradesWriter.csv(file)) {
+      grades(2).forEach(writer::write);
+    }
+    assertEquals(
+        "userid,username,assignmentid,assignmentname,grade,feedbackformat,feedback\r\n"
+            + "0,User 0,0,Assignment 0,0.0,2,\"Très bien, \"\"vraiment\"\"\"\r\n"
+            + "0,User 0,1,Assignment 1,11.0,1,<p>1\r\n",
+        Files.readString(file, StandardCharsets.UTF_8));
+  }
+}
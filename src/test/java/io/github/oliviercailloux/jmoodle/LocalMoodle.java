@@ -0,0 +1,138 @@
+package io.github.oliviercailloux.jmoodle;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.oliviercailloux.jmoodle.raw.Moodle;
+import jakarta.json.Json;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A Mood talking to a local server, which answers each request with the JSON text computed from
+ * its (decoded) query parameters, or with a server error if that computation throws. Uploads to
+ * {@code webservice/upload.php} are answered likewise from the upload received.
+ */
+class LocalMoodle implements AutoCloseable {
+  public static record Upload (ImmutableMap<String, String> query, String contentType,
+      String transferEncoding, String body) {
+  }
+
+  public static LocalMoodle answering(Function<ImmutableMap<String, String>, String> answers) {
+    return answering(answers, u -> {
+      throw new UnsupportedOperationException();
+    });
+  }
+
+  public static LocalMoodle answering(Function<ImmutableMap<String, String>, String> answers,
+      Function<Upload, String> uploads) {
+    HttpServer server;
+    try {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    LocalMoodle local = new LocalMoodle(server);
+    server.createContext("/webservice/rest/server.php", exchange -> {
+      ImmutableMap<String, String> query = query(exchange);
+      local.requests.add(query);
+      respond(exchange, () -> answers.apply(query));
+    });
+    server.createContext("/webservice/upload.php", exchange -> {
+      Headers headers = exchange.getRequestHeaders();
+      String body;
+      try (InputStream input = exchange.getRequestBody()) {
+        body = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+      }
+      Upload upload = new Upload(query(exchange), headers.getFirst("Content-Type"),
+          headers.getFirst("Transfer-Encoding"), body);
+      local.uploads.add(upload);
+      respond(exchange, () -> uploads.apply(upload));
+    });
+    server.start();
+    return local;
+  }
+
+  private static ImmutableMap<String, String> query(HttpExchange exchange) {
+    return ImmutableMap.copyOf(
+        Splitter.on('&').withKeyValueSeparator('=').split(exchange.getRequestURI().getQuery()));
+  }
+
+  private static void respond(HttpExchange exchange, Supplier<String> answerer)
+      throws IOException {
+    int status;
+    byte[] answer;
+    try {
+      answer = answerer.get().getBytes(StandardCharsets.UTF_8);
+      status = 200;
+    } catch (RuntimeException e) {
+      answer = e.toString().getBytes(StandardCharsets.UTF_8);
+      status = 500;
+    }
+    exchange.sendResponseHeaders(status, answer.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(answer);
+    }
+  }
+
+  private final HttpServer server;
+  private final List<ImmutableMap<String, String>> requests;
+  private final List<Upload> uploads;
+  private final Client client;
+  private final Moodle moodle;
+
+  private LocalMoodle(HttpServer server) {
+    this.server = server;
+    this.requests = Collections.synchronizedList(new ArrayList<>());
+    this.uploads = Collections.synchronizedList(new ArrayList<>());
+    this.client = ClientBuilder.newClient();
+    this.moodle = Moodle.instance(
+        URI.create("http://localhost:" + server.getAddress().getPort()
+            + "/webservice/rest/server.php"),
+        "key", client, Json.createReaderFactory(ImmutableMap.of()));
+  }
+
+  public Moodle moodle() {
+    return moodle;
+  }
+
+  public Mood mood() {
+    return Mood.using(moodle);
+  }
+
+  /** The query parameters of the requests received so far, in order of reception. */
+  public ImmutableList<ImmutableMap<String, String>> requests() {
+    synchronized (requests) {
+      return ImmutableList.copyOf(requests);
+    }
+  }
+
+  /** The uploads received so far, in order of reception. */
+  public ImmutableList<Upload> uploads() {
+    synchronized (uploads) {
+      return ImmutableList.copyOf(uploads);
+    }
+  }
+
+  @Override
+  public void close() {
+    moodle.close();
+    client.close();
+    server.stop(0);
+  }
+}
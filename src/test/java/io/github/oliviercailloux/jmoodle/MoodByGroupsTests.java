@@ -0,0 +1,102 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+
+public class MoodByGroupsTests {
+  /**
+   * Course 1 has two overlapping groups and a user in no group; course 2 has no groups. As Moodle
+   * does, a group id that is not a group of the course selects nobody.
+   */
+  private static final ImmutableMap<String, List<Integer>> USERS_BY_GROUP = ImmutableMap.of(
+      "1/5", List.of(1, 2), "1/6", List.of(2, 3), "1/all", List.of(1, 2, 3, 4), "2/all",
+      List.of(7, 8));
+
+  private static String answer(ImmutableMap<String, String> query) {
+    String courseId = query.get("courseid");
+    String function = query.get("wsfunction");
+    if (function.equals("core_group_get_course_groups")) {
+      JsonArrayBuilder groups = Json.createArrayBuilder();
+      if (courseId.equals("1")) {
+        groups.add(Json.createObjectBuilder().add("id", 5).add("courseid", 1));
+        groups.add(Json.createObjectBuilder().add("id", 6).add("courseid", 1));
+      }
+      return groups.build().toString();
+    }
+    List<Integer> userIds;
+    if (query.containsKey("userid")) {
+      userIds = List.of(Integer.parseInt(query.get("userid")));
+    } else {
+      userIds = USERS_BY_GROUP.getOrDefault(courseId + "/" + query.getOrDefault("groupid", "all"),
+          List.of());
+    }
+    JsonArrayBuilder elements = Json.createArrayBuilder();
+    String key;
+    if (function.equals("core_grades_get_gradable_users")) {
+      key = "users";
+      userIds.forEach(u -> elements.add(Json.createObjectBuilder().add("id", u)));
+    } else {
+      key = "usergrades";
+      userIds.forEach(u -> elements.add(Json.createObjectBuilder().add("userid", u)
+          .add("userfullname", "User " + u)
+          .add("gradeitems", Json.createArrayBuilder().add(Json.createObjectBuilder()
+              .add("itemtype", "mod").add("itemmodule", "assign").add("graderaw", u)
+              .add("iteminstance", 100).add("itemname", "Assignment").add("feedback", "")
+              .add("feedbackformat", 1)))));
+    }
+    return Json.createObjectBuilder().add(key, elements).add("warnings", Json.createArrayBuilder())
+        .build().toString();
+  }
+
+  private static long countRequests(LocalMoodle local, String function) {
+    return local.requests().stream().filter(q -> q.get("wsfunction").equals(function)).count();
+  }
+
+  @Test
+  void testGroups() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try (LocalMoodle local = LocalMoodle.answering(MoodByGroupsTests::answer)) {
+      Mood mood = local.mood();
+      ImmutableSet<Integer> users = mood.gradableUsersByGroups(1, executor).stream()
+          .map(u -> u.getInt("id")).collect(ImmutableSet.toImmutableSet());
+      assertEquals(ImmutableSet.of(1, 2, 3), users);
+
+      assertEquals(mood.gradesByAssignment(1), mood.gradesByAssignmentByGroups(1, executor));
+      ImmutableList<String> groupIds = local.requests().stream()
+          .filter(q -> q.get("wsfunction").equals("gradereport_user_get_grade_items"))
+          .filter(q -> q.containsKey("groupid")).map(q -> q.get("groupid")).distinct()
+          .sorted().collect(ImmutableList.toImmutableList());
+      assertEquals(ImmutableList.of("5", "6"), groupIds);
+      /* Only the user in no group is fetched individually. */
+      assertEquals(ImmutableList.of("4"), local.requests().stream()
+          .filter(q -> q.containsKey("userid")).map(q -> q.get("userid"))
+          .collect(ImmutableList.toImmutableList()));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testNoGroups() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try (LocalMoodle local = LocalMoodle.answering(MoodByGroupsTests::answer)) {
+      Mood mood = local.mood();
+      assertEquals(ImmutableSet.of(), mood.gradableUsersByGroups(2, executor));
+      assertEquals(mood.gradesByAssignment(2), mood.gradesByAssignmentByGroups(2, executor));
+      assertEquals(0, countRequests(local, "core_grades_get_gradable_users"));
+      assertEquals(2, countRequests(local, "gradereport_user_get_grade_items"));
+      assertEquals(0, local.requests().stream().filter(q -> q.containsKey("groupid")).count());
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.github.oliviercailloux.jmoodle.LocalMoodle.Upload;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MoodUploadTests {
+  /** Answers like Moodle, a new draft area getting the item id 777. */
+  private static String answer(Upload upload) {
+    String itemId = upload.query().get("itemid").equals("0") ? "777" : upload.query().get("itemid");
+    JsonArrayBuilder files = Json.createArrayBuilder();
+    files.add(Json.createObjectBuilder().add("component", "user").add("filearea", "draft")
+        .add("itemid", Integer.parseInt(itemId)).add("filepath", "/").add("filename", "f"));
+    if (upload.body().contains("twice")) {
+      files.add(Json.createObjectBuilder().add("itemid", Integer.parseInt(itemId)));
+    }
+    return files.build().toString();
+  }
+
+  @Test
+  void testUpload() throws Exception {
+    try (LocalMoodle local = LocalMoodle.answering(q -> {
+      throw new UnsupportedOperationException();
+    }, MoodUploadTests::answer)) {
+      assertEquals(777, local.moodle().upload(0, "notes.txt", Channels.newChannel(
+          new ByteArrayInputStream("Some notes".getBytes(StandardCharsets.UTF_8))))
+          .getInt("itemid"));
+      Upload upload = local.uploads().get(0);
+      assertEquals("key", upload.query().get("token"));
+      assertEquals("draft", upload.query().get("filearea"));
+      assertEquals("0", upload.query().get("itemid"));
+      assertTrue(upload.contentType().matches("multipart/form-data; ?boundary=.+"),
+          upload.contentType());
+      assertEquals("chunked", upload.transferEncoding());
+      assertTrue(upload.body().contains("filename=\"notes.txt\"\r\n"), upload.body());
+      assertTrue(upload.body().contains("\r\n\r\nSome notes\r\n--"), upload.body());
+
+      assertThrows(IllegalStateException.class, () -> local.moodle().upload(0, "twice.txt",
+          Channels.newChannel(new ByteArrayInputStream("twice".getBytes(StandardCharsets.UTF_8)))));
+    }
+  }
+
+  @Test
+  void testNewDraftArea(@TempDir Path dir) throws Exception {
+    ImmutableList.Builder<Path> files = ImmutableList.builder();
+    for (int i = 0; i < 4; ++i) {
+      Path file = dir.resolve("feedback" + i + ".txt");
+      Files.writeString(file, "Feedback " + i);
+      files.add(file);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try (LocalMoodle local = LocalMoodle.answering(q -> {
+      throw new UnsupportedOperationException();
+    }, MoodUploadTests::answer)) {
+      assertEquals(777, local.mood().uploadToNewDraftArea(files.build(), executor));
+      ImmutableList<Upload> uploads = local.uploads();
+      assertEquals(4, uploads.size());
+      assertEquals("0", uploads.get(0).query().get("itemid"));
+      assertTrue(uploads.get(0).body().contains("filename=\"feedback0.txt\""));
+      assertTrue(
+          uploads.subList(1, 4).stream().allMatch(u -> u.query().get("itemid").equals("777")));
+      assertEquals(ImmutableSet.of("Feedback 1", "Feedback 2", "Feedback 3"),
+          uploads.subList(1, 4).stream().map(u -> u.body().split("\r\n")[4])
+              .collect(ImmutableSet.toImmutableSet()));
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
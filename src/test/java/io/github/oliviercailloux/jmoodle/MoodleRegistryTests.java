@@ -0,0 +1,154 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.github.oliviercailloux.jmoodle.MoodleRegistry.Tenant;
+import io.github.oliviercailloux.jmoodle.MoodleRegistry.TenantLimits;
+import io.github.oliviercailloux.jmoodle.raw.Moodle;
+import jakarta.json.Json;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+public class MoodleRegistryTests {
+  private static final Tenant FIRST =
+      new Tenant(URI.create("https://moodle.example.org/webservice/rest/server.php"), "key1");
+  private static final Tenant SECOND =
+      new Tenant(URI.create("https://moodle.example.com/webservice/rest/server.php"), "key2");
+
+  @Test
+  void testLazyAndEvict() throws Exception {
+    Client client = ClientBuilder.newClient();
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    MoodleRegistry registry = MoodleRegistry.using(client,
+        Json.createReaderFactory(ImmutableMap.of()), pool, t -> new TenantLimits(4, 1, 2));
+    assertEquals(ImmutableSet.of(), registry.activeTenants());
+
+    assertSame(registry.moodle(FIRST), registry.moodle(FIRST));
+    assertNotSame(registry.moodle(FIRST), registry.moodle(SECOND));
+    assertEquals(ImmutableSet.of(FIRST, SECOND), registry.activeTenants());
+    assertEquals(0, registry.metrics().get(FIRST).completed());
+    assertTrue(!FIRST.toString().contains("key1"));
+
+    assertEquals(ImmutableSet.of(), registry.evictIdle(Duration.ofHours(1)));
+    Moodle closed = registry.moodle(SECOND);
+    registry.mood(SECOND).close();
+    assertNotSame(closed, registry.moodle(SECOND));
+    assertFalse(registry.moodle(SECOND).isClosed());
+    assertSame(registry.moodle(SECOND).scheduler(), closed.scheduler());
+    Thread.sleep(200);
+    registry.mood(FIRST);
+    assertEquals(ImmutableSet.of(SECOND), registry.evictIdle(Duration.ofMillis(100)));
+    assertEquals(ImmutableSet.of(FIRST), registry.evictIdle(Duration.ZERO));
+    assertEquals(ImmutableSet.of(), registry.activeTenants());
+    pool.shutdown();
+    client.close();
+  }
+
+  @Test
+  void testQuota() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    QuotaExecutor executor = QuotaExecutor.on(pool, 2);
+    CountDownLatch blocking = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(5);
+    AtomicInteger maxRunning = new AtomicInteger();
+    AtomicInteger running = new AtomicInteger();
+    for (int i = 0; i < 5; ++i) {
+      executor.execute(() -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          blocking.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        running.decrementAndGet();
+        done.countDown();
+      });
+    }
+    assertEquals(2, executor.running());
+    assertEquals(3, executor.queued());
+    while (running.get() != 2) {
+      Thread.sleep(1);
+    }
+    blocking.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(2, maxRunning.get());
+    pool.shutdown();
+  }
+
+  @Test
+  void testQuotaRejected() throws Exception {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    QuotaExecutor executor = QuotaExecutor.on(pool, 1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch blocking = new CountDownLatch(1);
+    CompletableFuture<Void> first = CompletableFuture.runAsync(() -> {
+      started.countDown();
+      try {
+        blocking.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    }, executor);
+    CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> "done", executor);
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    assertEquals(1, executor.queued());
+    pool.shutdown();
+    blocking.countDown();
+    first.get(10, TimeUnit.SECONDS);
+    assertEquals("done", queued.get(10, TimeUnit.SECONDS));
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(0, executor.running());
+    assertEquals(0, executor.queued());
+  }
+
+  @Test
+  void testQuotaRejectedAfterFailure() throws Exception {
+    AtomicReference<Throwable> uncaught = new AtomicReference<>();
+    CountDownLatch failed = new CountDownLatch(1);
+    ExecutorService pool = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r);
+      thread.setUncaughtExceptionHandler((t, e) -> {
+        uncaught.set(e);
+        failed.countDown();
+      });
+      return thread;
+    });
+    QuotaExecutor executor = QuotaExecutor.on(pool, 1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch blocking = new CountDownLatch(1);
+    executor.execute(() -> {
+      started.countDown();
+      try {
+        blocking.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      throw new IllegalStateException("Failed.");
+    });
+    CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> "done", executor);
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    pool.shutdown();
+    blocking.countDown();
+    assertEquals("done", queued.get(10, TimeUnit.SECONDS));
+    assertTrue(failed.await(10, TimeUnit.SECONDS));
+    assertEquals("Failed.", uncaught.get().getMessage());
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(0, executor.running());
+  }
+}
@@ -0,0 +1,79 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.github.oliviercailloux.jmoodle.MultiCourseSync.CourseData;
+import io.github.oliviercailloux.jmoodle.MultiCourseSync.SyncResult;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+
+public class MultiCourseSyncTests {
+  /** Courses 1 and 2 exist; fetching the assignments of course 2 fails. */
+  private static String answer(ImmutableMap<String, String> query) {
+    JsonArrayBuilder elements = Json.createArrayBuilder();
+    String key;
+    switch (query.get("wsfunction")) {
+      case "core_course_get_courses_by_field" -> {
+        key = "courses";
+        elements.add(Json.createObjectBuilder().add("id", 1));
+        elements.add(Json.createObjectBuilder().add("id", 2));
+      }
+      case "mod_assign_get_assignments" -> {
+        if (query.get("courseids[0]").equals("2")) {
+          throw new IllegalStateException("Course 2 is broken.");
+        }
+        key = "courses";
+        elements.add(Json.createObjectBuilder().add("id", 1).add("assignments",
+            Json.createArrayBuilder().add(Json.createObjectBuilder().add("id", 100))));
+      }
+      case "core_grades_get_gradable_users" -> {
+        key = "users";
+        elements.add(Json.createObjectBuilder().add("id", 10));
+      }
+      case "gradereport_user_get_grade_items" -> {
+        key = "usergrades";
+        elements.add(Json.createObjectBuilder().add("userid", 10).add("userfullname", "User")
+            .add("gradeitems", Json.createArrayBuilder().add(Json.createObjectBuilder()
+                .add("itemtype", "mod").add("itemmodule", "assign").add("graderaw", 15)
+                .add("iteminstance", 100).add("itemname", "Assignment").add("feedback", "")
+                .add("feedbackformat", 1))));
+      }
+      default -> throw new IllegalArgumentException(query.toString());
+    }
+    return Json.createObjectBuilder().add(key, elements).add("warnings", Json.createArrayBuilder())
+        .build().toString();
+  }
+
+  @Test
+  void testFailures() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try (LocalMoodle local = LocalMoodle.answering(MultiCourseSyncTests::answer)) {
+      /* With a single fetch at a time, those of course 2 queued after its failure never start. */
+      MultiCourseSync sync = MultiCourseSync.using(local.mood(), pool, 1);
+      SyncResult result = sync.syncCourses(ImmutableSet.of(1, 2, 99));
+
+      assertEquals(ImmutableSet.of(1), result.courses().keySet());
+      CourseData course = result.courses().get(1);
+      assertEquals(ImmutableSet.of(100), course.assignmentIds());
+      assertEquals(ImmutableSet.of(10), course.gradableUsers().stream().map(u -> u.getInt("id"))
+          .collect(ImmutableSet.toImmutableSet()));
+      assertEquals(15d, course.grades().get(new UserId(10), 100).grade());
+      assertEquals(1, result.allGrades().size());
+
+      assertEquals(ImmutableSet.of(99, 2), result.failures().keySet());
+      assertTrue(result.failures().get(99) instanceof IllegalArgumentException);
+      assertEquals(0, local.requests().stream()
+          .filter(q -> !q.get("wsfunction").equals("core_course_get_courses_by_field")
+              && !q.get("wsfunction").equals("mod_assign_get_assignments"))
+          .map(q -> q.get("courseid")).filter(c -> c.equals("2")).count());
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+public class ParallelDecoderTests {
+  @Test
+  void testOrder() throws Exception {
+    ImmutableList<Integer> elements =
+        IntStream.range(0, 10_000).boxed().collect(ImmutableList.toImmutableList());
+    ImmutableList<String> expected = elements.stream()
+        .flatMap(i -> i % 3 == 0 ? Stream.<String>of() : Stream.of(i + "a", i + "b"))
+        .collect(ImmutableList.toImmutableList());
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    ParallelDecoder decoder = ParallelDecoder.using(pool, 7);
+    ImmutableList<String> decoded = decoder.decode(elements,
+        i -> i % 3 == 0 ? ImmutableList.of() : ImmutableList.of(i + "a", i + "b"));
+    assertEquals(expected, decoded);
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,47 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+public class PollingPolicyTests {
+  private static final PollingPolicy POLICY =
+      new PollingPolicy(Duration.ofSeconds(30), Duration.ofMinutes(4), Duration.ofHours(1));
+
+  private static final Instant NOW = Instant.parse("2024-01-10T12:00:00Z");
+
+  @Test
+  void testBackOff() throws Exception {
+    Duration interval = POLICY.minInterval();
+    interval = POLICY.nextInterval(interval, false, Optional.empty(), NOW);
+    assertEquals(Duration.ofMinutes(1), interval);
+    interval = POLICY.nextInterval(interval, false, Optional.empty(), NOW);
+    assertEquals(Duration.ofMinutes(2), interval);
+    interval = POLICY.nextInterval(interval, false, Optional.empty(), NOW);
+    assertEquals(Duration.ofMinutes(4), interval);
+    interval = POLICY.nextInterval(interval, false, Optional.empty(), NOW);
+    assertEquals(Duration.ofMinutes(4), interval);
+  }
+
+  @Test
+  void testActivity() throws Exception {
+    assertEquals(Duration.ofSeconds(30),
+        POLICY.nextInterval(Duration.ofMinutes(4), true, Optional.empty(), NOW));
+  }
+
+  @Test
+  void testDueDate() throws Exception {
+    Optional<Instant> soon = Optional.of(NOW.plus(Duration.ofMinutes(20)));
+    assertEquals(Duration.ofSeconds(30),
+        POLICY.nextInterval(Duration.ofMinutes(4), false, soon, NOW));
+    Optional<Instant> justPassed = Optional.of(NOW.minus(Duration.ofMinutes(20)));
+    assertEquals(Duration.ofSeconds(30),
+        POLICY.nextInterval(Duration.ofMinutes(4), false, justPassed, NOW));
+    Optional<Instant> far = Optional.of(NOW.plus(Duration.ofDays(3)));
+    assertEquals(Duration.ofMinutes(2),
+        POLICY.nextInterval(Duration.ofMinutes(1), false, far, NOW));
+  }
+}
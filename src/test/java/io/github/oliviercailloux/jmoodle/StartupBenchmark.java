@@ -0,0 +1,35 @@
+package io.github.oliviercailloux.jmoodle;
+
+import io.github.oliviercailloux.jmoodle.raw.Moodle;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the time from a cold JVM start to the first {@link Mood#courseId(String)} result, as a
+ * short-lived grading job would see it. Run in a fresh JVM, with the {@code API_KEY} credential
+ * available, and as arguments the server URI (defaults to the PSL test server) and the course
+ * short name.
+ */
+public class StartupBenchmark {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(StartupBenchmark.class);
+
+  public static void main(String[] args) {
+    Duration atMain = Duration.ofMillis(ManagementFactory.getRuntimeMXBean().getUptime());
+    URI server = URI.create(
+        args.length >= 1 ? args[0] : "https://moodle-test.psl.eu/webservice/rest/server.php");
+    String shortname = args.length >= 2 ? args[1] : "23_CIP_test_autograder";
+
+    long start = System.nanoTime();
+    try (Mood mood = Mood.using(Moodle.instance(server))) {
+      Duration instance = Duration.ofNanos(System.nanoTime() - start);
+      int courseId = mood.courseId(shortname);
+      Duration firstResult = Duration.ofNanos(System.nanoTime() - start);
+      LOGGER.info("Course {}: JVM to main {} ms, instance {} ms, to first result {} ms.", courseId,
+          atMain.toMillis(), instance.toMillis(), atMain.plus(firstResult).toMillis());
+    }
+  }
+}
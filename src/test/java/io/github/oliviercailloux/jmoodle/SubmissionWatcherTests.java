@@ -0,0 +1,157 @@
+package io.github.oliviercailloux.jmoodle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.jupiter.api.Test;
+
+public class SubmissionWatcherTests {
+  private static class MovingClock extends Clock {
+    private volatile Instant now;
+
+    private MovingClock(Instant now) {
+      this.now = now;
+    }
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+
+  private static record Submission (int userId, String status, Instant timeModified) {
+  }
+
+  /** Answers like Moodle, filtering on the since parameter. */
+  private static String answer(Map<Integer, List<Submission>> submissions,
+      ImmutableMap<String, String> query) {
+    Instant since = Optional.ofNullable(query.get("since")).map(Long::parseLong)
+        .map(Instant::ofEpochSecond).orElse(Instant.MIN);
+    JsonArrayBuilder assignments = Json.createArrayBuilder();
+    query.entrySet().stream().filter(e -> e.getKey().startsWith("assignmentids["))
+        .map(e -> Integer.parseInt(e.getValue())).forEach(id -> {
+          JsonArrayBuilder selected = Json.createArrayBuilder();
+          submissions.getOrDefault(id, List.of()).stream()
+              .filter(s -> !s.timeModified().isBefore(since))
+              .forEach(s -> selected.add(Json.createObjectBuilder().add("userid", s.userId())
+                  .add("attemptnumber", 0).add("status", s.status())
+                  .add("timemodified", s.timeModified().getEpochSecond())));
+          JsonObject assignment = Json.createObjectBuilder().add("assignmentid", id)
+              .add("submissions", selected).build();
+          if (!assignment.getJsonArray("submissions").isEmpty()) {
+            assignments.add(assignment);
+          }
+        });
+    return Json.createObjectBuilder().add("assignments", assignments)
+        .add("warnings", Json.createArrayBuilder()).build().toString();
+  }
+
+  private static ImmutableMap<String, String> assignmentIds(ImmutableMap<String, String> query) {
+    return ImmutableMap.copyOf(Maps.filterKeys(query, k -> k.startsWith("assignmentids[")));
+  }
+
+  @Test
+  void testPollDue() throws Exception {
+    /* The server clock is one hour late. */
+    Instant serverTime = Instant.parse("2026-01-01T10:00:00Z");
+    MovingClock clock = new MovingClock(serverTime.plus(Duration.ofHours(1)));
+    Map<Integer, List<Submission>> submissions = new ConcurrentHashMap<>();
+    submissions.put(1, new ArrayList<>(List.of(new Submission(10, "submitted", serverTime))));
+    submissions.put(3, new ArrayList<>(List.of(new Submission(11, "new", serverTime))));
+
+    LinkedBlockingQueue<SubmissionEvent> events = new LinkedBlockingQueue<>();
+    try (LocalMoodle local = LocalMoodle.answering(q -> answer(submissions, q))) {
+      PollingPolicy policy =
+          new PollingPolicy(Duration.ofSeconds(30), Duration.ofMinutes(30), Duration.ZERO);
+      SubmissionWatcher watcher =
+          SubmissionWatcher.watching(local.mood(), events, policy, 2, clock);
+      watcher.watch(1, Optional.empty());
+      watcher.watch(2, Optional.empty());
+      watcher.watch(3, Optional.empty());
+
+      assertEquals(2, watcher.pollDue());
+      ImmutableList<ImmutableMap<String, String>> first = local.requests();
+      assertEquals(2, first.size());
+      assertEquals("1", first.get(0).get("assignmentids[0]"));
+      assertEquals("2", first.get(0).get("assignmentids[1]"));
+      assertEquals("3", first.get(1).get("assignmentids[0]"));
+      assertFalse(first.get(0).containsKey("since"));
+      assertFalse(first.get(1).containsKey("since"));
+      assertEquals(new SubmissionEvent(1, new UserId(10), 0, "submitted", serverTime),
+          events.take());
+      assertEquals(new SubmissionEvent(3, new UserId(11), 0, "new", serverTime), events.take());
+
+      assertEquals(0, watcher.pollDue());
+
+      clock.advance(Duration.ofSeconds(30));
+      submissions.get(1).add(new Submission(12, "submitted", serverTime.plusSeconds(5)));
+      submissions.put(3, List.of(new Submission(11, "submitted", serverTime.plusSeconds(20))));
+      assertEquals(2, watcher.pollDue());
+      ImmutableList<ImmutableMap<String, String>> second =
+          local.requests().subList(2, local.requests().size());
+      /*
+       * Assignment 2 saw no activity, thus is not due yet. The other ones are fetched since the
+       * latest server time they saw, which also returns the already known submission of user 10.
+       */
+      assertEquals(1, second.size());
+      assertEquals("1", second.get(0).get("assignmentids[0]"));
+      assertEquals("3", second.get(0).get("assignmentids[1]"));
+      assertEquals(Long.toString(serverTime.minusSeconds(10).getEpochSecond()),
+          second.get(0).get("since"));
+      assertEquals(
+          new SubmissionEvent(1, new UserId(12), 0, "submitted", serverTime.plusSeconds(5)),
+          events.take());
+      assertEquals(
+          new SubmissionEvent(3, new UserId(11), 0, "submitted", serverTime.plusSeconds(20)),
+          events.take());
+      assertEquals(0, events.size());
+
+      /*
+       * Assignment 2, which never returned a submission, is now due together with the others, but
+       * is fetched alone, so that the others keep their since.
+       */
+      clock.advance(Duration.ofSeconds(30));
+      assertEquals(0, watcher.pollDue());
+      ImmutableList<ImmutableMap<String, String>> third =
+          local.requests().subList(3, local.requests().size());
+      assertEquals(2, third.size());
+      assertEquals(ImmutableMap.of("assignmentids[0]", "2"), assignmentIds(third.get(0)));
+      assertFalse(third.get(0).containsKey("since"));
+      assertEquals(ImmutableMap.of("assignmentids[0]", "1", "assignmentids[1]", "3"),
+          assignmentIds(third.get(1)));
+      assertEquals(Long.toString(serverTime.minusSeconds(5).getEpochSecond()),
+          third.get(1).get("since"));
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package io.github.oliviercailloux.jmoodle.raw;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class MoodleExchangeTests {
+  @Test
+  void testAnswers() throws Exception {
+    String large = "{\"courses\":[" + "{\"id\":1,\"fullname\":\"Économie\"},".repeat(20_000)
+        + "{\"id\":2,\"fullname\":\"Last\"}],\"warnings\":[]}";
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/webservice/rest/server.php", exchange -> {
+      String query = exchange.getRequestURI().getQuery();
+      byte[] answer = (query.contains("wsfunction=mod_assign_save_grades") ? "null" : large)
+          .getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, answer.length);
+      try (OutputStream body = exchange.getResponseBody()) {
+        body.write(answer);
+      }
+    });
+    server.start();
+    Client client = ClientBuilder.newClient();
+    try (Moodle moodle = Moodle.instance(
+        URI.create("http://localhost:" + server.getAddress().getPort()
+            + "/webservice/rest/server.php"),
+        "key", client, Json.createReaderFactory(ImmutableMap.of()))) {
+      JsonObject courses = moodle.core_course_get_courses_by_field("category", "1");
+      assertEquals(20_001, courses.getJsonArray("courses").size());
+      assertEquals("Économie",
+          courses.getJsonArray("courses").getJsonObject(0).getString("fullname"));
+      moodle.mod_assign_save_grades(1, false, ImmutableSet.of());
+      assertNull(moodle.send("mod_assign_save_grades", ImmutableMap.of()));
+
+      ResponseAllocation allocation = moodle.responseAllocation();
+      assertEquals(3, allocation.calls());
+      assertTrue(allocation.bytesPerCall() > 0);
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+}
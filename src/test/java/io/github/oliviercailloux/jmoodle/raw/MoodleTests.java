@@ -1,10 +1,12 @@
 package io.github.oliviercailloux.jmoodle.raw;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import java.net.URI;
 import java.util.Optional;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
@@ -97,4 +99,18 @@ public class MoodleTests {
         "p1[0][owner]", "the owner", "p1[1][user][name]", "her name 2", "p1[1][user][age]", "61",
         "p1[1][owner]", "the owner 2"), solved);
   }
+
+  @Test
+  void testClosed() throws Exception {
+    URI server = URI.create("https://moodle.example.org/webservice/rest/server.php");
+    Moodle first = Moodle.instance(server, "key", RequestScheduler.unlimited());
+    Moodle second = Moodle.instance(server, "key", RequestScheduler.unlimited());
+    first.close();
+    first.close();
+    assertThrows(IllegalStateException.class,
+        () -> first.tool_mobile_get_plugins_supporting_mobile());
+    second.close();
+    assertThrows(IllegalStateException.class,
+        () -> second.tool_mobile_get_plugins_supporting_mobile());
+  }
 }
@@ -0,0 +1,45 @@
+package io.github.oliviercailloux.jmoodle.raw;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MultipartFileTests {
+  private static String expected(MultipartFile body, String filename, String content) {
+    String boundary = body.mediaType().getParameters().get("boundary");
+    return "--" + boundary + "\r\n"
+        + "Content-Disposition: form-data; name=\"file_1\"; filename=\"" + filename + "\"\r\n"
+        + "Content-Type: application/octet-stream\r\n\r\n" + content + "\r\n--" + boundary
+        + "--\r\n";
+  }
+
+  @Test
+  void testFile(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("report.pdf");
+    String content = "Some content\r\n".repeat(10_000);
+    Files.writeString(file, content);
+    try (FileChannel channel = FileChannel.open(file)) {
+      MultipartFile body = MultipartFile.of("report.pdf", channel);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      body.write(output);
+      assertEquals(expected(body, "report.pdf", content), output.toString(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  void testChannel() throws Exception {
+    MultipartFile body = MultipartFile.of("a \"log\".txt", Channels
+        .newChannel(new ByteArrayInputStream("Log".getBytes(StandardCharsets.UTF_8))));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    body.write(output);
+    assertEquals(expected(body, "a %22log%22.txt", "Log"), output.toString(StandardCharsets.UTF_8));
+  }
+}
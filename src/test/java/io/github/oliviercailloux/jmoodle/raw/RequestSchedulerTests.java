@@ -0,0 +1,151 @@
+package io.github.oliviercailloux.jmoodle.raw;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import io.github.oliviercailloux.jmoodle.raw.RequestScheduler.Priority;
+import io.github.oliviercailloux.jmoodle.raw.RequestScheduler.RequestContext;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+public class RequestSchedulerTests {
+  private static CompletableFuture<Void> submit(ExecutorService executor,
+      RequestScheduler scheduler, RequestContext context, Runnable request) {
+    return CompletableFuture.runAsync(() -> RequestScheduler.as(context, () -> {
+      return scheduler.schedule(() -> {
+        request.run();
+        return null;
+      });
+    }), executor);
+  }
+
+  private static void awaitWaiting(RequestScheduler scheduler, Priority priority, int count)
+      throws InterruptedException {
+    while (scheduler.waiting(priority) != count) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  void testReserved() throws Exception {
+    RequestScheduler scheduler = RequestScheduler.withCapacity(2, 1);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    CountDownLatch blocking = new CountDownLatch(1);
+    CompletableFuture<Void> sync = submit(executor, scheduler, RequestContext.bulk("sync"), () -> {
+      try {
+        blocking.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    while (scheduler.inFlight(Priority.BULK) != 1) {
+      Thread.sleep(1);
+    }
+    CompletableFuture<Void> secondSync =
+        submit(executor, scheduler, RequestContext.bulk("sync"), () -> {
+        });
+    awaitWaiting(scheduler, Priority.BULK, 1);
+
+    submit(executor, scheduler, RequestContext.interactive("teacher"), () -> {
+    }).get(10, TimeUnit.SECONDS);
+    assertEquals(1, scheduler.waiting(Priority.BULK));
+
+    blocking.countDown();
+    sync.get(10, TimeUnit.SECONDS);
+    secondSync.get(10, TimeUnit.SECONDS);
+    executor.shutdown();
+  }
+
+  @Test
+  void testOrder() throws Exception {
+    RequestScheduler scheduler = RequestScheduler.withCapacity(1, 0);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    CountDownLatch blocking = new CountDownLatch(1);
+    CompletableFuture<Void> holder = submit(executor, scheduler, RequestContext.DEFAULT, () -> {
+      try {
+        blocking.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    while (scheduler.inFlight(Priority.INTERACTIVE) != 1) {
+      Thread.sleep(1);
+    }
+
+    List<String> order = new CopyOnWriteArrayList<>();
+    ImmutableList.Builder<CompletableFuture<Void>> futures = ImmutableList.builder();
+    futures.add(
+        submit(executor, scheduler, RequestContext.bulk("sync"), () -> order.add("sync")));
+    awaitWaiting(scheduler, Priority.BULK, 1);
+    futures.add(
+        submit(executor, scheduler, RequestContext.interactive("a"), () -> order.add("a1")));
+    awaitWaiting(scheduler, Priority.INTERACTIVE, 1);
+    futures.add(
+        submit(executor, scheduler, RequestContext.interactive("a"), () -> order.add("a2")));
+    awaitWaiting(scheduler, Priority.INTERACTIVE, 2);
+    futures.add(
+        submit(executor, scheduler, RequestContext.interactive("b"), () -> order.add("b1")));
+    awaitWaiting(scheduler, Priority.INTERACTIVE, 3);
+
+    blocking.countDown();
+    holder.get(10, TimeUnit.SECONDS);
+    for (CompletableFuture<Void> future : futures.build()) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    assertEquals(ImmutableList.of("a1", "b1", "a2", "sync"), ImmutableList.copyOf(order));
+    executor.shutdown();
+  }
+
+  @Test
+  void testInterrupted() throws Exception {
+    RequestScheduler scheduler = RequestScheduler.withCapacity(1, 0);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    CountDownLatch blocking = new CountDownLatch(1);
+    CompletableFuture<Void> holder = submit(executor, scheduler, RequestContext.DEFAULT, () -> {
+      try {
+        blocking.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    while (scheduler.inFlight(Priority.INTERACTIVE) != 1) {
+      Thread.sleep(1);
+    }
+    AtomicReference<RuntimeException> thrown = new AtomicReference<>();
+    AtomicBoolean ran = new AtomicBoolean();
+    AtomicBoolean interrupted = new AtomicBoolean();
+    Thread waiter = new Thread(() -> {
+      try {
+        scheduler.schedule(() -> ran.getAndSet(true));
+      } catch (RuntimeException e) {
+        thrown.set(e);
+        interrupted.set(Thread.currentThread().isInterrupted());
+      }
+    });
+    waiter.start();
+    awaitWaiting(scheduler, Priority.INTERACTIVE, 1);
+    waiter.interrupt();
+    waiter.join(10_000);
+
+    assertTrue(thrown.get() instanceof IllegalStateException);
+    assertTrue(interrupted.get());
+    assertFalse(ran.get());
+    assertEquals(0, scheduler.waiting(Priority.INTERACTIVE));
+    blocking.countDown();
+    holder.get(10, TimeUnit.SECONDS);
+    submit(executor, scheduler, RequestContext.DEFAULT, () -> {
+    }).get(10, TimeUnit.SECONDS);
+    assertEquals(0, scheduler.inFlight(Priority.INTERACTIVE));
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,30 @@
+package io.github.oliviercailloux.jmoodle.raw;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayInputStream;
+import org.junit.jupiter.api.Test;
+
+public class ResponseBuffersTests {
+  @Test
+  void testRetainedTotal() throws Exception {
+    ResponseBuffers buffers = new ResponseBuffers(4, 512 * 1024);
+    ResponseBuffers.Buffer large = buffers.acquire();
+    large.readFrom(new ByteArrayInputStream(new byte[300 * 1024]));
+    ResponseBuffers.Buffer otherLarge = buffers.acquire();
+    otherLarge.readFrom(new ByteArrayInputStream(new byte[300 * 1024]));
+    ResponseBuffers.Buffer small = buffers.acquire();
+
+    buffers.release(large);
+    buffers.release(otherLarge);
+    assertEquals(512 * 1024, buffers.pooledBytes());
+    buffers.release(small);
+    assertEquals(512 * 1024, buffers.pooledBytes());
+
+    assertSame(large, buffers.acquire());
+    assertEquals(0, buffers.pooledBytes());
+    assertNotSame(otherLarge, buffers.acquire());
+  }
+}